@@ -0,0 +1,75 @@
+package com.sothree.slidinguppanel;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Inflates panel content on a background thread and delivers it on the UI thread. If the layout
+ * cannot be inflated off the UI thread, for instance because one of its views creates a Handler,
+ * it is inflated again on the UI thread.
+ */
+class AsyncPanelInflater {
+    private static final String TAG = AsyncPanelInflater.class.getSimpleName();
+
+    /**
+     * Callback for the inflated content, called on the UI thread
+     */
+    interface Callback {
+        void onPanelContentInflated(View content);
+    }
+
+    private static Executor sExecutor;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private static synchronized Executor getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "SlidingUpPanel inflater");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
+    /**
+     * Inflates a layout in the background.
+     *
+     * @param inflater An inflater used only by this call
+     * @param resId    The layout resource
+     * @param parent   The parent the layout params are generated for, it is not attached to
+     * @param callback The callback receiving the content on the UI thread
+     */
+    void inflate(final LayoutInflater inflater, final int resId, final ViewGroup parent, final Callback callback) {
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                View content = null;
+                try {
+                    content = inflater.inflate(resId, parent, false);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Failed to inflate the panel content in the background, inflating it on the UI thread", e);
+                }
+                final View result = content;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onPanelContentInflated(result != null ? result : inflater.inflate(resId, parent, false));
+                    }
+                });
+            }
+        });
+    }
+}
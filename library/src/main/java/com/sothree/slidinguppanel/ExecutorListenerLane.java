@@ -0,0 +1,191 @@
+package com.sothree.slidinguppanel;
+
+import android.os.Handler;
+import android.util.Log;
+import android.view.View;
+
+import com.sothree.slidinguppanel.SlidingUpPanelLayout.PanelSlideListener;
+import com.sothree.slidinguppanel.SlidingUpPanelLayout.PanelState;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivers the events of a {@link PanelSlideListener} on an {@link Executor} or a
+ * {@link Handler}. Slide offsets are conflated to the latest one, so a slow listener never builds
+ * up a queue. State changes are queued and delivered in order, each preceded by the offset the
+ * panel had when its state changed. At most one delivery task is in flight at a time, so the
+ * listener is never called concurrently.
+ * <p/>
+ * Posting an offset from the UI thread is a volatile write and a volatile read while a delivery
+ * task is in flight. With a Handler or a ScheduledExecutorService, the delivery task polls the
+ * offset once per frame for as long as it keeps changing, so the task stays in flight during a
+ * drag. A plain Executor cannot run a task later, the UI thread then schedules a new task with a
+ * compare-and-set and an {@link Executor#execute} call on the first frame after the listener has
+ * caught up.
+ */
+class ExecutorListenerLane implements Runnable {
+    private static final String TAG = "ExecutorListenerLane";
+
+    /**
+     * Interval between two polls of the slide offset, about a frame
+     */
+    private static final long POLL_INTERVAL_MS = 16;
+
+    private final PanelSlideListener mListener;
+    private final Executor mExecutor;
+    private final Handler mHandler;
+
+    /**
+     * Panel given with the slide offsets, published by the volatile write of the offset
+     */
+    private View mPanel;
+    private volatile float mLatestOffset = Float.NaN;
+    private final ConcurrentLinkedQueue<StateChange> mStateChanges = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    private volatile boolean mClosed;
+
+    /**
+     * Last offset given to the listener, only accessed by the delivery task
+     */
+    private float mDeliveredOffset = Float.NaN;
+
+    ExecutorListenerLane(PanelSlideListener listener, Executor executor) {
+        mListener = listener;
+        mExecutor = executor;
+        mHandler = null;
+    }
+
+    ExecutorListenerLane(PanelSlideListener listener, Handler handler) {
+        mListener = listener;
+        mExecutor = null;
+        mHandler = handler;
+    }
+
+    PanelSlideListener getListener() {
+        return mListener;
+    }
+
+    void postSlide(View panel, float slideOffset) {
+        mPanel = panel;
+        mLatestOffset = slideOffset;
+        if (!mScheduled.get()) {
+            schedule();
+        }
+    }
+
+    void postStateChange(View panel, PanelState previousState, PanelState newState, float slideOffset) {
+        mStateChanges.offer(new StateChange(panel, previousState, newState, slideOffset));
+        schedule();
+    }
+
+    /**
+     * Stops delivering events, including the ones already posted.
+     */
+    void close() {
+        mClosed = true;
+        mStateChanges.clear();
+    }
+
+    private void schedule() {
+        if (mScheduled.compareAndSet(false, true)) {
+            if (mHandler != null) {
+                mHandler.post(this);
+                return;
+            }
+            try {
+                mExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // Never fail the drag for a listener off the UI thread, the next event tries again
+                mScheduled.set(false);
+                Log.w(TAG, "Dropped an event of " + mListener.getClass().getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Runs the delivery task again after a frame, keeping it in flight.
+     *
+     * @return false if the task cannot be run later
+     */
+    private boolean pollLater() {
+        if (mHandler != null) {
+            return mHandler.postDelayed(this, POLL_INTERVAL_MS);
+        }
+        if (mExecutor instanceof ScheduledExecutorService) {
+            try {
+                final ScheduledExecutorService executor = (ScheduledExecutorService) mExecutor;
+                executor.schedule(this, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void run() {
+        boolean deliveredSlide = false;
+        while (!mClosed) {
+            StateChange change;
+            while ((change = mStateChanges.poll()) != null && !mClosed) {
+                deliverSlide(change.mPanel, change.mSlideOffset);
+                mListener.onPanelStateChanged(change.mPanel, change.mPreviousState, change.mNewState);
+            }
+            final float latestOffset = mLatestOffset;
+            if (!mStateChanges.isEmpty()) {
+                // A state change was posted after the offset was read, deliver it first so
+                // that the listener never goes back to an older offset
+                continue;
+            }
+            if (!mClosed) {
+                deliveredSlide = deliverSlide(mPanel, latestOffset);
+            }
+            break;
+        }
+        if (mClosed) {
+            return;
+        }
+        if (deliveredSlide && pollLater()) {
+            // The panel is moving, keep the task in flight so that the UI thread does not have
+            // to schedule it again on the next frame
+            return;
+        }
+        mScheduled.set(false);
+        if (!mStateChanges.isEmpty() || !sameOffset(mLatestOffset, mDeliveredOffset)) {
+            schedule();
+        }
+    }
+
+    private boolean deliverSlide(View panel, float slideOffset) {
+        if (sameOffset(slideOffset, mDeliveredOffset)) {
+            return false;
+        }
+        mDeliveredOffset = slideOffset;
+        mListener.onPanelSlide(panel, slideOffset);
+        return true;
+    }
+
+    private static boolean sameOffset(float a, float b) {
+        return Float.floatToIntBits(a) == Float.floatToIntBits(b);
+    }
+
+    private static class StateChange {
+        final View mPanel;
+        final PanelState mPreviousState;
+        final PanelState mNewState;
+        final float mSlideOffset;
+
+        StateChange(View panel, PanelState previousState, PanelState newState, float slideOffset) {
+            mPanel = panel;
+            mPreviousState = previousState;
+            mNewState = newState;
+            mSlideOffset = slideOffset;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.sothree.slidinguppanel;
+
+import android.annotation.SuppressLint;
+import android.os.Build;
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+
+/**
+ * Keeps views on hardware layers while the panel is in motion, so that their content is not
+ * rendered again on every frame, and restores their previous layer type when the motion stops.
+ * Views that are too large for a layer, or that keep invalidating their content during the
+ * motion, are not kept on a layer.
+ */
+class MotionLayers {
+    /**
+     * Number of consecutive frames a view may invalidate its content before its layer is dropped
+     */
+    private static final int MAX_DIRTY_FRAMES = 3;
+    /**
+     * Views larger than this in either dimension are never promoted, as they would exceed the
+     * maximum texture size of many devices
+     */
+    private static final int MAX_LAYER_SIZE = 4096;
+
+    private final View[] mViews = new View[2];
+    private final int[] mPreviousLayerTypes = new int[2];
+    private final int[] mDirtyFrames = new int[2];
+    private int mCount;
+    private boolean mActive;
+
+    /**
+     * Starts a motion, promoting the given views to hardware layers. Does nothing if a motion is
+     * already in progress, so that a view whose layer was dropped is not promoted again.
+     *
+     * @param first  The first view to promote, may be null
+     * @param second The second view to promote, may be null
+     */
+    void start(View first, View second) {
+        if (mActive) {
+            return;
+        }
+        mActive = true;
+        promote(first);
+        promote(second);
+    }
+
+    /**
+     * Called once per frame of the motion. Drops the layer of views that keep invalidating their
+     * content, as their layer would be rendered again on every frame anyway.
+     */
+    @SuppressLint("NewApi")
+    void onFrame() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        for (int i = mCount - 1; i >= 0; i--) {
+            if (!mViews[i].isDirty()) {
+                mDirtyFrames[i] = 0;
+            } else if (++mDirtyFrames[i] >= MAX_DIRTY_FRAMES) {
+                restore(i);
+            }
+        }
+    }
+
+    /**
+     * Stops the motion and restores the previous layer type of all promoted views.
+     */
+    void stop() {
+        mActive = false;
+        for (int i = mCount - 1; i >= 0; i--) {
+            restore(i);
+        }
+    }
+
+    private void promote(View view) {
+        if (view == null || !canPromote(view)) {
+            return;
+        }
+        mViews[mCount] = view;
+        mPreviousLayerTypes[mCount] = ViewCompat.getLayerType(view);
+        mDirtyFrames[mCount] = 0;
+        mCount++;
+        ViewCompat.setLayerType(view, ViewCompat.LAYER_TYPE_HARDWARE, null);
+    }
+
+    @SuppressLint("NewApi")
+    private static boolean canPromote(View view) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && view.isHardwareAccelerated()
+                && ViewCompat.getLayerType(view) == ViewCompat.LAYER_TYPE_NONE
+                && view.getWidth() > 0 && view.getWidth() <= MAX_LAYER_SIZE
+                && view.getHeight() > 0 && view.getHeight() <= MAX_LAYER_SIZE;
+    }
+
+    private void restore(int index) {
+        ViewCompat.setLayerType(mViews[index], mPreviousLayerTypes[index], null);
+        mCount--;
+        System.arraycopy(mViews, index + 1, mViews, index, mCount - index);
+        System.arraycopy(mPreviousLayerTypes, index + 1, mPreviousLayerTypes, index, mCount - index);
+        System.arraycopy(mDirtyFrames, index + 1, mDirtyFrames, index, mCount - index);
+        mViews[mCount] = null;
+    }
+}
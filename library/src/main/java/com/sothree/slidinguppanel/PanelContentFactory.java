@@ -0,0 +1,20 @@
+package com.sothree.slidinguppanel;
+
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Creates the content of the sliding panel the first time it is revealed. Until then the panel is
+ * only a lightweight placeholder of the collapsed panel height.
+ *
+ * @see SlidingUpPanelLayout#setPanelContentFactory(PanelContentFactory)
+ */
+public interface PanelContentFactory {
+    /**
+     * Creates the panel content.
+     *
+     * @param parent The layout the content will be added to
+     * @return The panel content view
+     */
+    View createPanelContent(ViewGroup parent);
+}
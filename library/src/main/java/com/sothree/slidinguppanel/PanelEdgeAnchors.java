@@ -0,0 +1,150 @@
+package com.sothree.slidinguppanel;
+
+import android.annotation.SuppressLint;
+import android.graphics.Rect;
+import android.os.Build;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.nineoldandroids.view.animation.AnimatorProxy;
+
+/**
+ * Views of the main content kept at a fixed distance from the moving edge of the panel. They are
+ * moved with their translation, from positions recorded on layout, so following the panel never
+ * lays them out again.
+ */
+class PanelEdgeAnchors {
+    private View[] mViews = new View[2];
+    private int[] mOffsets = new int[2];
+    private int[] mBaseTops = new int[2];
+    private int[] mBaseBottoms = new int[2];
+    private boolean[] mAttached = new boolean[2];
+    private float[] mLastTranslations = new float[2];
+    private int mCount;
+
+    private final Rect mTmpRect = new Rect();
+
+    /**
+     * Anchors a view to the panel edge. A view anchored again only has its offset updated.
+     *
+     * @param view   The view to anchor
+     * @param offset Distance in pixels between the view and the panel edge
+     */
+    void add(View view, int offset) {
+        if (view == null) {
+            throw new IllegalArgumentException("View cannot be null");
+        }
+        for (int i = 0; i < mCount; i++) {
+            if (mViews[i] == view) {
+                mOffsets[i] = offset;
+                return;
+            }
+        }
+        if (mCount == mViews.length) {
+            final int capacity = mCount * 2;
+            final View[] views = new View[capacity];
+            System.arraycopy(mViews, 0, views, 0, mCount);
+            mViews = views;
+            mOffsets = grow(mOffsets, capacity, mCount);
+            mBaseTops = grow(mBaseTops, capacity, mCount);
+            mBaseBottoms = grow(mBaseBottoms, capacity, mCount);
+            final boolean[] attached = new boolean[capacity];
+            System.arraycopy(mAttached, 0, attached, 0, mCount);
+            mAttached = attached;
+            final float[] lastTranslations = new float[capacity];
+            System.arraycopy(mLastTranslations, 0, lastTranslations, 0, mCount);
+            mLastTranslations = lastTranslations;
+        }
+        mViews[mCount] = view;
+        mOffsets[mCount] = offset;
+        mAttached[mCount] = false;
+        mLastTranslations[mCount] = Float.NaN;
+        mCount++;
+    }
+
+    private static int[] grow(int[] array, int capacity, int count) {
+        final int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, count);
+        return grown;
+    }
+
+    /**
+     * Removes the anchor of a view and resets its translation.
+     */
+    void remove(View view) {
+        for (int i = 0; i < mCount; i++) {
+            if (mViews[i] == view) {
+                if (mAttached[i]) {
+                    setTranslationY(view, 0);
+                }
+                final int moved = mCount - i - 1;
+                System.arraycopy(mViews, i + 1, mViews, i, moved);
+                System.arraycopy(mOffsets, i + 1, mOffsets, i, moved);
+                System.arraycopy(mBaseTops, i + 1, mBaseTops, i, moved);
+                System.arraycopy(mBaseBottoms, i + 1, mBaseBottoms, i, moved);
+                System.arraycopy(mAttached, i + 1, mAttached, i, moved);
+                System.arraycopy(mLastTranslations, i + 1, mLastTranslations, i, moved);
+                mCount--;
+                mViews[mCount] = null;
+                return;
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    /**
+     * Records the laid out position of the anchored views. Views that are not in the main view
+     * are left alone until they are.
+     *
+     * @param layout   The sliding layout
+     * @param mainView The main view of the layout
+     */
+    void updateBasePositions(ViewGroup layout, View mainView) {
+        for (int i = 0; i < mCount; i++) {
+            final View view = mViews[i];
+            mAttached[i] = mainView != null && SlidingUpPanelLayout.isDescendant(view, mainView);
+            if (!mAttached[i]) {
+                continue;
+            }
+            mTmpRect.set(0, 0, view.getWidth(), view.getHeight());
+            layout.offsetDescendantRectToMyCoords(view, mTmpRect);
+            mBaseTops[i] = mTmpRect.top;
+            mBaseBottoms[i] = mTmpRect.bottom;
+        }
+    }
+
+    /**
+     * Moves the anchored views to follow the panel edge.
+     *
+     * @param edge                The moving edge of the panel, in the layout coordinates
+     * @param slidingUp           True if the panel slides up, the views are then kept above the
+     *                            edge, below it otherwise
+     * @param mainViewTranslation Vertical translation of the main view
+     */
+    void apply(int edge, boolean slidingUp, float mainViewTranslation) {
+        for (int i = 0; i < mCount; i++) {
+            if (!mAttached[i]) {
+                continue;
+            }
+            final float translation = slidingUp
+                    ? edge - mOffsets[i] - mBaseBottoms[i] - mainViewTranslation
+                    : edge + mOffsets[i] - mBaseTops[i] - mainViewTranslation;
+            if (translation != mLastTranslations[i]) {
+                mLastTranslations[i] = translation;
+                setTranslationY(mViews[i], translation);
+            }
+        }
+    }
+
+    @SuppressLint("NewApi")
+    private static void setTranslationY(View view, float translation) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            view.setTranslationY(translation);
+        } else {
+            AnimatorProxy.wrap(view).setTranslationY(translation);
+        }
+    }
+}
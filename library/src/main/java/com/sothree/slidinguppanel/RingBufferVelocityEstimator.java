@@ -0,0 +1,203 @@
+package com.sothree.slidinguppanel;
+
+/**
+ * Default {@link VelocityEstimator} keeping the most recent samples in preallocated primitive
+ * arrays. Two strategies are available, mirroring the ones of the platform VelocityTracker:
+ * an impulse based estimation and a quadratic least squares fit.
+ */
+public class RingBufferVelocityEstimator implements VelocityEstimator {
+
+    /**
+     * Estimates the velocity from the kinetic energy imparted by each sample.
+     */
+    public static final int STRATEGY_IMPULSE = 0;
+
+    /**
+     * Estimates the velocity from a quadratic least squares fit of the recent samples.
+     */
+    public static final int STRATEGY_LSQ2 = 1;
+
+    /**
+     * Number of samples kept in the ring buffer
+     */
+    private static final int HISTORY_SIZE = 20;
+
+    /**
+     * Samples older than this relative to the newest one are ignored
+     */
+    private static final long HORIZON_MS = 100;
+
+    /**
+     * A pause this long between two samples means the pointer stopped, older samples are dropped
+     */
+    private static final long ASSUME_POINTER_STOPPED_MS = 40;
+
+    private final int mStrategy;
+
+    private final long[] mTimes = new long[HISTORY_SIZE];
+    private final float[] mX = new float[HISTORY_SIZE];
+    private final float[] mY = new float[HISTORY_SIZE];
+
+    // Index of the newest sample and number of valid samples
+    private int mHead = -1;
+    private int mCount;
+
+    private float mXVelocity;
+    private float mYVelocity;
+
+    public RingBufferVelocityEstimator() {
+        this(STRATEGY_LSQ2);
+    }
+
+    /**
+     * @param strategy Either {@link #STRATEGY_IMPULSE} or {@link #STRATEGY_LSQ2}
+     */
+    public RingBufferVelocityEstimator(int strategy) {
+        if (strategy != STRATEGY_IMPULSE && strategy != STRATEGY_LSQ2) {
+            throw new IllegalArgumentException("Unknown velocity estimation strategy: " + strategy);
+        }
+        mStrategy = strategy;
+    }
+
+    @Override
+    public void addSample(long eventTime, float x, float y) {
+        if (mCount > 0 && eventTime - mTimes[mHead] > ASSUME_POINTER_STOPPED_MS) {
+            mCount = 0;
+        }
+        mHead = (mHead + 1) % HISTORY_SIZE;
+        mTimes[mHead] = eventTime;
+        mX[mHead] = x;
+        mY[mHead] = y;
+        if (mCount < HISTORY_SIZE) {
+            mCount++;
+        }
+    }
+
+    @Override
+    public void clear() {
+        mHead = -1;
+        mCount = 0;
+        mXVelocity = 0;
+        mYVelocity = 0;
+    }
+
+    @Override
+    public void computeVelocity(float maxVelocity) {
+        final int count = countRecentSamples();
+        if (mStrategy == STRATEGY_IMPULSE) {
+            mXVelocity = clamp(computeImpulseVelocity(mX, count), maxVelocity);
+            mYVelocity = clamp(computeImpulseVelocity(mY, count), maxVelocity);
+        } else {
+            mXVelocity = clamp(computeLeastSquaresVelocity(mX, count), maxVelocity);
+            mYVelocity = clamp(computeLeastSquaresVelocity(mY, count), maxVelocity);
+        }
+    }
+
+    @Override
+    public float getXVelocity() {
+        return mXVelocity;
+    }
+
+    @Override
+    public float getYVelocity() {
+        return mYVelocity;
+    }
+
+    /**
+     * @return The number of samples, newest first, that fall within the estimation horizon
+     */
+    private int countRecentSamples() {
+        if (mCount == 0) {
+            return 0;
+        }
+        final long newestTime = mTimes[mHead];
+        int count = 1;
+        while (count < mCount && newestTime - mTimes[index(count)] <= HORIZON_MS) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @param age 0 for the newest sample, 1 for the one before and so on
+     * @return The position of the sample in the ring buffer
+     */
+    private int index(int age) {
+        return (mHead - age + HISTORY_SIZE) % HISTORY_SIZE;
+    }
+
+    private float computeImpulseVelocity(float[] positions, int count) {
+        if (count < 2) {
+            return 0;
+        }
+        // Walk from the oldest to the newest sample accumulating the work done on the pointer
+        float work = 0;
+        boolean first = true;
+        for (int age = count - 2; age >= 0; age--) {
+            final int curr = index(age);
+            final int prev = index(age + 1);
+            final long dt = mTimes[curr] - mTimes[prev];
+            if (dt <= 0) {
+                continue;
+            }
+            final float vPrev = kineticEnergyToVelocity(work);
+            final float vCurr = (positions[curr] - positions[prev]) * 1000f / dt;
+            work += (vCurr - vPrev) * Math.abs(vCurr);
+            if (first) {
+                work *= 0.5f;
+                first = false;
+            }
+        }
+        return kineticEnergyToVelocity(work);
+    }
+
+    private static float kineticEnergyToVelocity(float work) {
+        return (float) (Math.signum(work) * Math.sqrt(2 * Math.abs(work)));
+    }
+
+    private float computeLeastSquaresVelocity(float[] positions, int count) {
+        if (count < 2) {
+            return 0;
+        }
+        final int newest = index(0);
+        if (count == 2) {
+            final int oldest = index(1);
+            final long dt = mTimes[newest] - mTimes[oldest];
+            return dt > 0 ? (positions[newest] - positions[oldest]) * 1000f / dt : 0;
+        }
+
+        // Fit p(t) = a + b * t + c * t^2 with t in seconds relative to the newest sample,
+        // the velocity at the newest sample is then b.
+        double s1 = 0, s2 = 0, s3 = 0, s4 = 0;
+        double sp = 0, stp = 0, st2p = 0;
+        for (int age = 0; age < count; age++) {
+            final int i = index(age);
+            final double t = (mTimes[i] - mTimes[newest]) / 1000.0;
+            final double t2 = t * t;
+            final double p = positions[i] - positions[newest];
+            s1 += t;
+            s2 += t2;
+            s3 += t2 * t;
+            s4 += t2 * t2;
+            sp += p;
+            stp += t * p;
+            st2p += t2 * p;
+        }
+        final double n = count;
+        final double det = n * (s2 * s4 - s3 * s3) - s1 * (s1 * s4 - s3 * s2) + s2 * (s1 * s3 - s2 * s2);
+        if (Math.abs(det) < 1e-12) {
+            // Degenerate timing, fall back to the slope over the recent samples
+            final int oldest = index(count - 1);
+            final long dt = mTimes[newest] - mTimes[oldest];
+            return dt > 0 ? (positions[newest] - positions[oldest]) * 1000f / dt : 0;
+        }
+        final double detB = n * (stp * s4 - s3 * st2p) - sp * (s1 * s4 - s3 * s2) + s2 * (s1 * st2p - stp * s2);
+        return (float) (detB / det);
+    }
+
+    private static float clamp(float velocity, float maxVelocity) {
+        if (velocity > maxVelocity) return maxVelocity;
+        if (velocity < -maxVelocity) return -maxVelocity;
+        return velocity;
+    }
+}
@@ -0,0 +1,63 @@
+package com.sothree.slidinguppanel;
+
+import android.content.Context;
+import android.support.v4.widget.ScrollerCompat;
+import android.view.animation.Interpolator;
+
+/**
+ * {@link SettleEngine} driving the motion with a {@link ScrollerCompat} and an interpolator over
+ * a duration computed from the release velocity and the travelled distance.
+ */
+public class ScrollerSettleEngine implements SettleEngine {
+
+    private final ScrollerCompat mScroller;
+
+    public ScrollerSettleEngine(Context context, Interpolator interpolator) {
+        mScroller = ScrollerCompat.create(context, interpolator);
+    }
+
+    @Override
+    public void startSettle(int startX, int startY, int dx, int dy, float xvel, float yvel, int duration) {
+        mScroller.startScroll(startX, startY, dx, dy, duration);
+    }
+
+    @Override
+    public void fling(int startX, int startY, int xvel, int yvel, int minX, int maxX, int minY, int maxY) {
+        mScroller.fling(startX, startY, xvel, yvel, minX, maxX, minY, maxY);
+    }
+
+    @Override
+    public boolean computeOffset() {
+        return mScroller.computeScrollOffset();
+    }
+
+    @Override
+    public void abort() {
+        mScroller.abortAnimation();
+    }
+
+    @Override
+    public boolean isFinished() {
+        return mScroller.isFinished();
+    }
+
+    @Override
+    public int getCurrX() {
+        return mScroller.getCurrX();
+    }
+
+    @Override
+    public int getCurrY() {
+        return mScroller.getCurrY();
+    }
+
+    @Override
+    public int getFinalX() {
+        return mScroller.getFinalX();
+    }
+
+    @Override
+    public int getFinalY() {
+        return mScroller.getFinalY();
+    }
+}
@@ -0,0 +1,61 @@
+package com.sothree.slidinguppanel;
+
+/**
+ * Computes the motion of a view settling into place after it has been released or moved
+ * programmatically by the {@link ViewDragHelper}. Positions are expressed in the parent's
+ * coordinates and velocities in pixels per second.
+ */
+public interface SettleEngine {
+    /**
+     * Starts settling from the given position to the given target.
+     *
+     * @param startX   Starting horizontal position
+     * @param startY   Starting vertical position
+     * @param dx       Horizontal distance to travel
+     * @param dy       Vertical distance to travel
+     * @param xvel     Horizontal velocity at the start of the motion
+     * @param yvel     Vertical velocity at the start of the motion
+     * @param duration Suggested duration of the motion in milliseconds. Engines driven by physics
+     *                 may ignore it.
+     */
+    void startSettle(int startX, int startY, int dx, int dy, float xvel, float yvel, int duration);
+
+    /**
+     * Starts a free fling within the given bounds.
+     *
+     * @param startX Starting horizontal position
+     * @param startY Starting vertical position
+     * @param xvel   Initial horizontal velocity
+     * @param yvel   Initial vertical velocity
+     * @param minX   Minimum horizontal position
+     * @param maxX   Maximum horizontal position
+     * @param minY   Minimum vertical position
+     * @param maxY   Maximum vertical position
+     */
+    void fling(int startX, int startY, int xvel, int yvel, int minX, int maxX, int minY, int maxY);
+
+    /**
+     * Updates the current position for the current animation time.
+     *
+     * @return true if the motion is not yet finished
+     */
+    boolean computeOffset();
+
+    /**
+     * Stops the motion, moving the current position to the final one.
+     */
+    void abort();
+
+    /**
+     * @return true if the motion is finished
+     */
+    boolean isFinished();
+
+    int getCurrX();
+
+    int getCurrY();
+
+    int getFinalX();
+
+    int getFinalY();
+}
@@ -0,0 +1,203 @@
+package com.sothree.slidinguppanel;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.content.res.XmlResourceParser;
+import android.util.Log;
+import android.util.Xml;
+import android.view.View;
+
+import com.sothree.slidinguppanel.library.R;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Reads the slide effects XML resource set as umanoSlideEffects. It holds &lt;binding&gt;
+ * elements, binding a view property to the slide offset, and &lt;edge-anchor&gt; elements,
+ * anchoring a view of the main content to the panel edge. Effects whose target is not in the
+ * layout yet, such as a view of panel content that is created later, are kept until
+ * {@link #resolvePending(View)} is called.
+ */
+class SlideEffectsInflater {
+    private static final String TAG = "SlideEffectsInflater";
+
+    private static final String TAG_BINDING = "binding";
+    private static final String TAG_EDGE_ANCHOR = "edge-anchor";
+
+    private final Context mContext;
+    private final SlideOffsetBindings mBindings;
+    private final PanelEdgeAnchors mAnchors;
+
+    /**
+     * Effects whose target was not found
+     */
+    private final ArrayList<Effect> mPending = new ArrayList<>();
+
+    /**
+     * @param context  The context to load the resource with
+     * @param bindings Receives the bindings
+     * @param anchors  Receives the edge anchors
+     */
+    SlideEffectsInflater(Context context, SlideOffsetBindings bindings, PanelEdgeAnchors anchors) {
+        mContext = context;
+        mBindings = bindings;
+        mAnchors = anchors;
+    }
+
+    /**
+     * @param resId       The XML resource
+     * @param root        The view the targets are looked up in
+     * @param deferMissed True to keep the effects whose target is missing until
+     *                    {@link #resolvePending(View)}, false to skip them with a warning
+     */
+    void inflate(int resId, View root, boolean deferMissed) {
+        final XmlResourceParser parser = mContext.getResources().getXml(resId);
+        try {
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type != XmlPullParser.START_TAG) {
+                    continue;
+                }
+                final Effect effect;
+                if (TAG_BINDING.equals(parser.getName())) {
+                    effect = parseBinding(parser);
+                } else if (TAG_EDGE_ANCHOR.equals(parser.getName())) {
+                    effect = parseEdgeAnchor(parser);
+                } else {
+                    continue;
+                }
+                if (!apply(effect, root)) {
+                    if (deferMissed) {
+                        mPending.add(effect);
+                    } else {
+                        warnMissing(effect);
+                    }
+                }
+            }
+        } catch (XmlPullParserException | IOException e) {
+            throw new IllegalArgumentException("Cannot read the slide effects resource", e);
+        } finally {
+            parser.close();
+        }
+    }
+
+    boolean hasPending() {
+        return !mPending.isEmpty();
+    }
+
+    /**
+     * Applies the effects whose target was missing, and warns about the ones whose target is
+     * still missing. They are not tried again.
+     *
+     * @param root The view the targets are looked up in
+     */
+    void resolvePending(View root) {
+        for (int i = 0; i < mPending.size(); i++) {
+            final Effect effect = mPending.get(i);
+            if (!apply(effect, root)) {
+                warnMissing(effect);
+            }
+        }
+        mPending.clear();
+    }
+
+    /**
+     * A binding has an umanoTarget view id, an umanoProperty and umanoKeyframes, a list of
+     * offset:value pairs such as "0:1 0.5:0". Translation values are in dips.
+     */
+    private Effect parseBinding(XmlResourceParser parser) {
+        final TypedArray ta = mContext.obtainStyledAttributes(Xml.asAttributeSet(parser),
+                R.styleable.SlidingUpPanelLayoutBinding);
+        try {
+            final Effect effect = new Effect(parser.getPositionDescription());
+            effect.mTargetId = ta.getResourceId(R.styleable.SlidingUpPanelLayoutBinding_umanoTarget, -1);
+            effect.mProperty = ta.getInt(R.styleable.SlidingUpPanelLayoutBinding_umanoProperty, -1);
+            final String keyframes =
+                    ta.getString(R.styleable.SlidingUpPanelLayoutBinding_umanoKeyframes);
+            if (effect.mTargetId == -1 || effect.mProperty == -1 || keyframes == null) {
+                throw new IllegalArgumentException(
+                        "A binding needs an umanoTarget, an umanoProperty and umanoKeyframes");
+            }
+
+            final String[] pairs = keyframes.trim().split("[\\s,]+");
+            effect.mOffsets = new float[pairs.length];
+            effect.mValues = new float[pairs.length];
+            final float scale = effect.mProperty == SlideOffsetBindings.PROPERTY_TRANSLATION_X
+                    || effect.mProperty == SlideOffsetBindings.PROPERTY_TRANSLATION_Y
+                    ? mContext.getResources().getDisplayMetrics().density : 1;
+            for (int i = 0; i < pairs.length; i++) {
+                final int separator = pairs[i].indexOf(':');
+                if (separator == -1) {
+                    throw new IllegalArgumentException(
+                            "Invalid keyframe " + pairs[i] + ", expected offset:value");
+                }
+                effect.mOffsets[i] = Float.parseFloat(pairs[i].substring(0, separator));
+                effect.mValues[i] = Float.parseFloat(pairs[i].substring(separator + 1)) * scale;
+            }
+            return effect;
+        } finally {
+            ta.recycle();
+        }
+    }
+
+    /**
+     * An edge anchor has an umanoTarget view id and an optional umanoEdgeOffset dimension.
+     */
+    private Effect parseEdgeAnchor(XmlResourceParser parser) {
+        final TypedArray ta = mContext.obtainStyledAttributes(Xml.asAttributeSet(parser),
+                R.styleable.SlidingUpPanelLayoutEdgeAnchor);
+        try {
+            final Effect effect = new Effect(parser.getPositionDescription());
+            effect.mTargetId =
+                    ta.getResourceId(R.styleable.SlidingUpPanelLayoutEdgeAnchor_umanoTarget, -1);
+            if (effect.mTargetId == -1) {
+                throw new IllegalArgumentException("An edge anchor needs an umanoTarget");
+            }
+            effect.mEdgeOffset = ta.getDimensionPixelOffset(
+                    R.styleable.SlidingUpPanelLayoutEdgeAnchor_umanoEdgeOffset, 0);
+            return effect;
+        } finally {
+            ta.recycle();
+        }
+    }
+
+    /**
+     * @return false if the target of the effect is not in the layout
+     */
+    private boolean apply(Effect effect, View root) {
+        final View view = root.findViewById(effect.mTargetId);
+        if (view == null) {
+            return false;
+        }
+        if (effect.mOffsets != null) {
+            mBindings.add(view, effect.mProperty, effect.mOffsets, effect.mValues);
+        } else {
+            mAnchors.add(view, effect.mEdgeOffset);
+        }
+        return true;
+    }
+
+    private static void warnMissing(Effect effect) {
+        Log.w(TAG, "Skipping a slide effect on a view that is not in the layout: " + effect.mPosition);
+    }
+
+    /**
+     * A parsed binding or edge anchor. Bindings have keyframes, edge anchors do not.
+     */
+    private static class Effect {
+        final String mPosition;
+        int mTargetId;
+        int mProperty;
+        float[] mOffsets;
+        float[] mValues;
+        int mEdgeOffset;
+
+        Effect(String position) {
+            mPosition = position;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.sothree.slidinguppanel;
+
+import android.annotation.SuppressLint;
+import android.os.Build;
+import android.view.View;
+
+import com.nineoldandroids.view.animation.AnimatorProxy;
+
+/**
+ * Bindings of view properties to the slide offset, as piecewise linear keyframes. All the
+ * bindings are kept in flat arrays and evaluated in a single loop, and a property is only set
+ * when its value changes.
+ */
+class SlideOffsetBindings {
+    static final int PROPERTY_ALPHA = 0;
+    static final int PROPERTY_TRANSLATION_X = 1;
+    static final int PROPERTY_TRANSLATION_Y = 2;
+    static final int PROPERTY_SCALE_X = 3;
+    static final int PROPERTY_SCALE_Y = 4;
+    static final int PROPERTY_ROTATION = 5;
+
+    private View[] mViews = new View[4];
+    private int[] mProperties = new int[4];
+    private int[] mKeyframeStarts = new int[4];
+    private int[] mKeyframeCounts = new int[4];
+    private float[] mLastValues = new float[4];
+    private int mCount;
+
+    private float[] mKeyframeOffsets = new float[16];
+    private float[] mKeyframeValues = new float[16];
+    private int mKeyframeCount;
+
+    /**
+     * Adds a binding.
+     *
+     * @param view     The view whose property is bound
+     * @param property One of the PROPERTY_ constants
+     * @param offsets  Slide offsets of the keyframes, in increasing order
+     * @param values   Property values at the keyframes
+     */
+    void add(View view, int property, float[] offsets, float[] values) {
+        if (view == null) {
+            throw new IllegalArgumentException("View cannot be null");
+        }
+        if (offsets.length == 0 || offsets.length != values.length) {
+            throw new IllegalArgumentException(
+                    "Offsets and values must have the same, non zero, length");
+        }
+        for (int i = 1; i < offsets.length; i++) {
+            if (offsets[i] < offsets[i - 1]) {
+                throw new IllegalArgumentException("Offsets must be in increasing order");
+            }
+        }
+        if (mCount == mViews.length) {
+            final int capacity = mCount * 2;
+            final View[] views = new View[capacity];
+            System.arraycopy(mViews, 0, views, 0, mCount);
+            mViews = views;
+            mProperties = grow(mProperties, capacity, mCount);
+            mKeyframeStarts = grow(mKeyframeStarts, capacity, mCount);
+            mKeyframeCounts = grow(mKeyframeCounts, capacity, mCount);
+            mLastValues = grow(mLastValues, capacity, mCount);
+        }
+        if (mKeyframeCount + offsets.length > mKeyframeOffsets.length) {
+            final int capacity = Math.max(mKeyframeOffsets.length * 2, mKeyframeCount + offsets.length);
+            mKeyframeOffsets = grow(mKeyframeOffsets, capacity, mKeyframeCount);
+            mKeyframeValues = grow(mKeyframeValues, capacity, mKeyframeCount);
+        }
+        System.arraycopy(offsets, 0, mKeyframeOffsets, mKeyframeCount, offsets.length);
+        System.arraycopy(values, 0, mKeyframeValues, mKeyframeCount, values.length);
+
+        mViews[mCount] = view;
+        mProperties[mCount] = property;
+        mKeyframeStarts[mCount] = mKeyframeCount;
+        mKeyframeCounts[mCount] = offsets.length;
+        mLastValues[mCount] = Float.NaN;
+        mCount++;
+        mKeyframeCount += offsets.length;
+    }
+
+    /**
+     * Removes all the bindings of a view.
+     */
+    void remove(View view) {
+        int count = 0;
+        int keyframeCount = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (mViews[i] == view) {
+                continue;
+            }
+            final int start = mKeyframeStarts[i];
+            final int length = mKeyframeCounts[i];
+            System.arraycopy(mKeyframeOffsets, start, mKeyframeOffsets, keyframeCount, length);
+            System.arraycopy(mKeyframeValues, start, mKeyframeValues, keyframeCount, length);
+            mViews[count] = mViews[i];
+            mProperties[count] = mProperties[i];
+            mKeyframeStarts[count] = keyframeCount;
+            mKeyframeCounts[count] = length;
+            mLastValues[count] = mLastValues[i];
+            count++;
+            keyframeCount += length;
+        }
+        for (int i = count; i < mCount; i++) {
+            mViews[i] = null;
+        }
+        mCount = count;
+        mKeyframeCount = keyframeCount;
+    }
+
+    private static int[] grow(int[] array, int capacity, int count) {
+        final int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, count);
+        return grown;
+    }
+
+    private static float[] grow(float[] array, int capacity, int count) {
+        final float[] grown = new float[capacity];
+        System.arraycopy(array, 0, grown, 0, count);
+        return grown;
+    }
+
+    boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    /**
+     * Sets all the bound properties for the given slide offset.
+     */
+    void apply(float slideOffset) {
+        final float[] offsets = mKeyframeOffsets;
+        final float[] values = mKeyframeValues;
+        for (int i = 0; i < mCount; i++) {
+            final int start = mKeyframeStarts[i];
+            final int end = start + mKeyframeCounts[i] - 1;
+            float value;
+            if (slideOffset <= offsets[start]) {
+                value = values[start];
+            } else if (slideOffset >= offsets[end]) {
+                value = values[end];
+            } else {
+                int k = start;
+                while (slideOffset > offsets[k + 1]) {
+                    k++;
+                }
+                final float fraction = (slideOffset - offsets[k]) / (offsets[k + 1] - offsets[k]);
+                value = values[k] + fraction * (values[k + 1] - values[k]);
+            }
+            if (value != mLastValues[i]) {
+                mLastValues[i] = value;
+                setProperty(mViews[i], mProperties[i], value);
+            }
+        }
+    }
+
+    @SuppressLint("NewApi")
+    private static void setProperty(View view, int property, float value) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            switch (property) {
+                case PROPERTY_ALPHA:
+                    view.setAlpha(value);
+                    break;
+                case PROPERTY_TRANSLATION_X:
+                    view.setTranslationX(value);
+                    break;
+                case PROPERTY_TRANSLATION_Y:
+                    view.setTranslationY(value);
+                    break;
+                case PROPERTY_SCALE_X:
+                    view.setScaleX(value);
+                    break;
+                case PROPERTY_SCALE_Y:
+                    view.setScaleY(value);
+                    break;
+                case PROPERTY_ROTATION:
+                    view.setRotation(value);
+                    break;
+            }
+        } else {
+            final AnimatorProxy proxy = AnimatorProxy.wrap(view);
+            switch (property) {
+                case PROPERTY_ALPHA:
+                    proxy.setAlpha(value);
+                    break;
+                case PROPERTY_TRANSLATION_X:
+                    proxy.setTranslationX(value);
+                    break;
+                case PROPERTY_TRANSLATION_Y:
+                    proxy.setTranslationY(value);
+                    break;
+                case PROPERTY_SCALE_X:
+                    proxy.setScaleX(value);
+                    break;
+                case PROPERTY_SCALE_Y:
+                    proxy.setScaleY(value);
+                    break;
+                case PROPERTY_ROTATION:
+                    proxy.setRotation(value);
+                    break;
+            }
+        }
+    }
+}
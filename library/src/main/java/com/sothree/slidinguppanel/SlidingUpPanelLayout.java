@@ -3,31 +3,43 @@ package com.sothree.slidinguppanel;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.content.res.XmlResourceParser;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.PixelFormat;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.os.Handler;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.NonNull;
 import android.support.v4.view.MotionEventCompat;
 import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.util.Xml;
 import android.view.Gravity;
+import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewOutlineProvider;
+import android.view.ViewParent;
+import android.view.ViewTreeObserver;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.animation.AnimationUtils;
 import android.view.animation.Interpolator;
+import android.widget.FrameLayout;
 
 import com.nineoldandroids.view.animation.AnimatorProxy;
 import com.sothree.slidinguppanel.library.R;
 
-import java.util.ArrayList;
-import java.util.List;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
 
 public class SlidingUpPanelLayout extends ViewGroup {
 
@@ -62,6 +74,10 @@ public class SlidingUpPanelLayout extends ViewGroup {
      * Default Minimum velocity that will be detected as a fling
      */
     private static final int DEFAULT_MIN_FLING_VELOCITY = 400; // dips per second
+    /**
+     * Deceleration used to project where a fling would naturally stop
+     */
+    private static final int FLING_DECELERATION = 3000; // dips per second squared
     /**
      * Default is set to false because that is how it was written
      */
@@ -70,6 +86,14 @@ public class SlidingUpPanelLayout extends ViewGroup {
      * Default is set to true for clip panel for performance reasons
      */
     private static final boolean DEFAULT_CLIP_PANEL_FLAG = true;
+    /**
+     * Default main content mode
+     */
+    private static final MainContentMode DEFAULT_MAIN_CONTENT_MODE = MainContentMode.RESIZE;
+    /**
+     * Value of the umanoSettleEngine attribute selecting a {@link SpringSettleEngine}
+     */
+    private static final int SETTLE_ENGINE_SPRING = 1;
     /**
      * Default attributes for layout
      */
@@ -97,11 +121,40 @@ public class SlidingUpPanelLayout extends ViewGroup {
      */
     private final Paint mCoveredFadePaint = new Paint();
 
+    /**
+     * View fading the main view from its overlay on API 18+, so that the fade is animated with the
+     * alpha of its own layer instead of being drawn by drawChild
+     */
+    private View mCoveredFadeScrim;
+
+    /**
+     * Main view the scrim is currently added to
+     */
+    private ViewGroup mCoveredFadeScrimHost;
+
     /**
      * Drawable used to draw the shadow between panes.
      */
     private final Drawable mShadowDrawable;
 
+    /**
+     * Panel whose elevation casts the shadow on Lollipop and above, and the elevation it was
+     * given, to tell it from an elevation set by the app
+     */
+    private View mElevatedPanel;
+    private float mAppliedElevation;
+
+    /**
+     * True if the panel was given a bounds outline to cast its shadow without a background
+     */
+    private boolean mBoundsOutlineApplied;
+
+    /**
+     * Shadow drawables shared by all instances on API levels without elevation
+     */
+    private static Drawable sAboveShadowDrawable;
+    private static Drawable sBelowShadowDrawable;
+
     /**
      * The size of the overhang in pixels.
      */
@@ -112,11 +165,52 @@ public class SlidingUpPanelLayout extends ViewGroup {
      */
     private int mShadowHeight = -1;
 
+    /**
+     * Layout resource of the panel content, inflated the first time the panel is revealed
+     */
+    private int mPanelLayoutResId = -1;
+
+    /**
+     * Creates the panel content the first time the panel is revealed
+     */
+    private PanelContentFactory mPanelContentFactory;
+
+    /**
+     * Lightweight view standing in for the panel content until it is created
+     */
+    private FrameLayout mPanelPlaceholder;
+
+    /**
+     * If true, the panel content layout is inflated on a background thread
+     */
+    private boolean mAsyncPanelInflation;
+
+    /**
+     * True once the placeholder has been given the size of the panel content
+     */
+    private boolean mPanelInflationStarted;
+
+    /**
+     * True if the root of the asynchronously inflated content has a wrap_content height
+     */
+    private boolean mPanelWrapsContent;
+
+    /**
+     * True if the umanoDragView of asynchronously inflated content is to be looked up on the next
+     * touch-down
+     */
+    private boolean mResolveDragViewOnDown;
+
     /**
      * Parallax offset
      */
     private int mParallaxOffset = -1;
 
+    /**
+     * Parallax translation last applied to the main view
+     */
+    private int mAppliedParallaxOffset = Integer.MIN_VALUE;
+
     /**
      * True if the collapsed panel should be dragged up.
      */
@@ -174,6 +268,104 @@ public class SlidingUpPanelLayout extends ViewGroup {
 
     private PanelState mSlideState = DEFAULT_SLIDE_STATE;
 
+    /**
+     * How the main view is sized while the panel hides and shows in non-overlay mode.
+     */
+    public enum MainContentMode {
+        /**
+         * The main view is resized on every panel move
+         */
+        RESIZE,
+        /**
+         * The main view keeps its full size and is clipped while the panel moves, and is resized
+         * once when the panel settles. With a panel sliding from the top, the main view grows
+         * downwards from where it is so that its content does not move: while the panel hides,
+         * the area it uncovers above the main view shows the background of the layout until the
+         * panel settles.
+         */
+        DEFERRED_RESIZE,
+        /**
+         * The main view is never resized or clipped, the area left uncovered by the panel is
+         * reported to the {@link MainViewportListener} instead. This suits a SurfaceView or a
+         * TextureView that is expensive to resize.
+         */
+        VIEWPORT
+    }
+
+    private MainContentMode mMainContentMode = DEFAULT_MAIN_CONTENT_MODE;
+
+    /**
+     * Which views are kept on hardware layers while the panel is in motion.
+     */
+    public enum MotionLayerPolicy {
+        /**
+         * No view is promoted to a hardware layer
+         */
+        NONE,
+        /**
+         * The panel is promoted to a hardware layer while it moves
+         */
+        PANEL,
+        /**
+         * The panel, and the main view when it is moved by parallax, are promoted to hardware
+         * layers while the panel moves
+         */
+        PANEL_AND_MAIN
+    }
+
+    private MotionLayerPolicy mMotionLayerPolicy = MotionLayerPolicy.NONE;
+
+    /**
+     * View properties that can be bound to the slide offset.
+     */
+    public enum OffsetProperty {
+        ALPHA,
+        TRANSLATION_X,
+        TRANSLATION_Y,
+        SCALE_X,
+        SCALE_Y,
+        ROTATION
+    }
+
+    /**
+     * View properties bound to the slide offset
+     */
+    private final SlideOffsetBindings mOffsetBindings = new SlideOffsetBindings();
+
+    /**
+     * Views of the main content following the panel edge
+     */
+    private final PanelEdgeAnchors mEdgeAnchors = new PanelEdgeAnchors();
+
+    /**
+     * XML resource of the slide effects, read after inflation
+     */
+    private int mSlideEffectsResId = -1;
+
+    /**
+     * Slide effects whose target is in the panel content, until it is created
+     */
+    private SlideEffectsInflater mPendingSlideEffects;
+
+    private final MotionLayers mMotionLayers = new MotionLayers();
+
+    /**
+     * True if the main view has been given its full size until the panel settles
+     */
+    private boolean mMainViewEnlarged;
+
+    /**
+     * Listener for the area of the main view left uncovered by the panel
+     */
+    private MainViewportListener mMainViewportListener;
+
+    /**
+     * Last viewport reported to the viewport listener
+     */
+    private int mLastViewportTop = -1;
+    private int mLastViewportBottom = -1;
+    private final Rect mViewportInsets = new Rect();
+
     /**
      * If the current slide state is DRAGGING, this will store the last non dragging state
      */
@@ -195,6 +387,21 @@ public class SlidingUpPanelLayout extends ViewGroup {
      */
     private float mAnchorPoint = 1.f;
 
+    /**
+     * Top positions the panel can rest at, rebuilt on every layout
+     */
+    private final SnapPoints mSnapPoints = new SnapPoints();
+
+    /**
+     * True if the resting positions changed since the table was built
+     */
+    private boolean mSnapPointsDirty = true;
+
+    /**
+     * Fling deceleration in pixels per second squared
+     */
+    private final float mFlingDeceleration;
+
     /**
      * A panel view is locked into internal scrolling or another condition that
      * is preventing a drag.
@@ -211,9 +418,42 @@ public class SlidingUpPanelLayout extends ViewGroup {
     private float mInitialMotionY;
     private boolean mIsScrollableViewHandlingTouch = false;
 
-    private List<PanelSlideListener> mPanelSlideListeners = new ArrayList<>();
+    private static final SlideListenerRecord[] NO_LISTENERS = new SlideListenerRecord[0];
+
+    /**
+     * Copy-on-write array of listeners, replaced on every change so that it can be iterated
+     * without allocating, even if listeners are added or removed during a dispatch
+     */
+    private SlideListenerRecord[] mPanelSlideListeners = NO_LISTENERS;
+
+    /**
+     * True if a frame callback is posted to deliver the slide offset to once per frame listeners
+     */
+    private boolean mSlideFramePosted;
+
+    private final Runnable mSlideFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mSlideFramePosted = false;
+            final SlideListenerRecord[] records = mPanelSlideListeners;
+            for (int i = 0; i < records.length; i++) {
+                // Quantized listeners holding back a change are pending too, they wait for the
+                // next step or the state change
+                if (records[i].mPending && records[i].mPolicy.mOncePerFrame) {
+                    deliverSlide(records[i], mSlideableView);
+                }
+            }
+        }
+    };
     private View.OnClickListener mFadeOnClickListener;
 
+    /**
+     * Time budget of a listener call in nanoseconds, listener calls are only timed if positive
+     */
+    private long mListenerTimeBudget;
+
+    private ListenerBudgetCallback mListenerBudgetCallback;
+
     private final ViewDragHelper mDragHelper;
 
     /**
@@ -224,6 +464,36 @@ public class SlidingUpPanelLayout extends ViewGroup {
     private boolean mFirstLayout = true;
 
     private final Rect mTmpRect = new Rect();
+    private final Rect mUncoveredRect = new Rect();
+
+    /**
+     * True if the main view is clipped with its clip bounds instead of in drawChild
+     */
+    private boolean mMainViewClipBoundsSet;
+
+    /**
+     * Snapshot of the drag, scrollable and slideable view bounds in this layout's coordinates.
+     * Rebuilt on layout and whenever the panel moves so that touch hit testing never has to walk
+     * the view tree or allocate.
+     */
+    private final Rect mDragViewHitRect = new Rect();
+    private final Rect mScrollableViewHitRect = new Rect();
+    private final Rect mSlideableViewHitRect = new Rect();
+    private boolean mHitRectsDirty = true;
+
+    /**
+     * Drops the cached hit rects when a view of the window scrolls, since a drag or scrollable
+     * view inside a scrolling container moves without a layout or panel move
+     */
+    private final ViewTreeObserver.OnScrollChangedListener mHitRectsScrollListener =
+            new ViewTreeObserver.OnScrollChangedListener() {
+                @Override
+                public void onScrollChanged() {
+                    mHitRectsDirty = true;
+                }
+            };
+    private final int[] mTmpViewLocation = new int[2];
+    private final int[] mTmpParentLocation = new int[2];
 
     /**
      * Listener for monitoring events about sliding panes.
@@ -245,6 +515,37 @@ public class SlidingUpPanelLayout extends ViewGroup {
         public void onPanelStateChanged(View panel, PanelState previousState, PanelState newState);
     }
 
+    /**
+     * Callback for panel slide listeners that run longer than the time budget.
+     */
+    public interface ListenerBudgetCallback {
+        /**
+         * Called on the UI thread right after a listener call that was over the budget.
+         *
+         * @param listener      The slow listener
+         * @param durationNanos Duration of the call
+         * @param timings       Timings of all the calls of the listener so far
+         */
+        public void onListenerOverBudget(PanelSlideListener listener, long durationNanos, ListenerTimings timings);
+    }
+
+    /**
+     * Listener for the area of the main view that is not covered by the panel.
+     */
+    public interface MainViewportListener {
+        /**
+         * Called when the uncovered area of the main view changes, while the panel moves and
+         * when it settles.
+         *
+         * @param mainView The main view
+         * @param top      The top of the uncovered area, in layout coordinates
+         * @param bottom   The bottom of the uncovered area, in layout coordinates
+         * @param insets   How much of the main view is covered on each side. Only valid during
+         *                 the call.
+         */
+        public void onMainViewportChanged(View mainView, int top, int bottom, Rect insets);
+    }
+
     /**
      * No-op stubs for {@link PanelSlideListener}. If you only want to implement a subset
      * of the listener methods you can extend this instead of implement the full interface.
@@ -273,10 +574,15 @@ public class SlidingUpPanelLayout extends ViewGroup {
         if (isInEditMode()) {
             mShadowDrawable = null;
             mDragHelper = null;
+            mFlingDeceleration = 0;
             return;
         }
 
         Interpolator scrollerInterpolator = null;
+        boolean dragPrediction = false;
+        boolean coalesceDrag = false;
+        boolean translationPositioning = false;
+        SettleEngine settleEngine = null;
         if (attrs != null) {
             TypedArray defAttrs = context.obtainStyledAttributes(attrs, DEFAULT_ATTRS);
 
@@ -299,6 +605,9 @@ public class SlidingUpPanelLayout extends ViewGroup {
 
                 mDragViewResId = ta.getResourceId(R.styleable.SlidingUpPanelLayout_umanoDragView, -1);
                 mScrollableViewResId = ta.getResourceId(R.styleable.SlidingUpPanelLayout_umanoScrollableView, -1);
+                mPanelLayoutResId = ta.getResourceId(R.styleable.SlidingUpPanelLayout_umanoPanelLayout, -1);
+                mAsyncPanelInflation = ta.getBoolean(R.styleable.SlidingUpPanelLayout_umanoAsyncPanelInflation, false);
+                mSlideEffectsResId = ta.getResourceId(R.styleable.SlidingUpPanelLayout_umanoSlideEffects, -1);
 
                 mOverlayContent = ta.getBoolean(R.styleable.SlidingUpPanelLayout_umanoOverlay, DEFAULT_OVERLAY_FLAG);
                 mClipPanel = ta.getBoolean(R.styleable.SlidingUpPanelLayout_umanoClipPanel, DEFAULT_CLIP_PANEL_FLAG);
@@ -306,11 +615,23 @@ public class SlidingUpPanelLayout extends ViewGroup {
                 mAnchorPoint = ta.getFloat(R.styleable.SlidingUpPanelLayout_umanoAnchorPoint, DEFAULT_ANCHOR_POINT);
 
                 mSlideState = PanelState.values()[ta.getInt(R.styleable.SlidingUpPanelLayout_umanoInitialState, DEFAULT_SLIDE_STATE.ordinal())];
+                mMainContentMode = MainContentMode.values()[ta.getInt(R.styleable.SlidingUpPanelLayout_umanoMainContentMode, DEFAULT_MAIN_CONTENT_MODE.ordinal())];
+                mMotionLayerPolicy = MotionLayerPolicy.values()[ta.getInt(R.styleable.SlidingUpPanelLayout_umanoMotionLayers, MotionLayerPolicy.NONE.ordinal())];
+
+                dragPrediction = ta.getBoolean(R.styleable.SlidingUpPanelLayout_umanoDragPrediction, false);
+                coalesceDrag = ta.getBoolean(R.styleable.SlidingUpPanelLayout_umanoCoalesceDrag, false);
+                translationPositioning = ta.getBoolean(R.styleable.SlidingUpPanelLayout_umanoTranslationPositioning, false);
 
                 int interpolatorResId = ta.getResourceId(R.styleable.SlidingUpPanelLayout_umanoScrollInterpolator, -1);
                 if (interpolatorResId != -1) {
                     scrollerInterpolator = AnimationUtils.loadInterpolator(context, interpolatorResId);
                 }
+
+                if (ta.getInt(R.styleable.SlidingUpPanelLayout_umanoSettleEngine, 0) == SETTLE_ENGINE_SPRING) {
+                    settleEngine = new SpringSettleEngine(
+                            ta.getFloat(R.styleable.SlidingUpPanelLayout_umanoSpringStiffness, SpringSettleEngine.DEFAULT_STIFFNESS),
+                            ta.getFloat(R.styleable.SlidingUpPanelLayout_umanoSpringDampingRatio, SpringSettleEngine.DEFAULT_DAMPING_RATIO));
+                }
             }
 
             ta.recycle();
@@ -326,21 +647,25 @@ public class SlidingUpPanelLayout extends ViewGroup {
         if (mParallaxOffset == -1) {
             mParallaxOffset = (int) (DEFAULT_PARALLAX_OFFSET * density);
         }
-        // If the shadow height is zero, don't show the shadow
-        if (mShadowHeight > 0) {
-            if (mIsSlidingUp) {
-                mShadowDrawable = getResources().getDrawable(R.drawable.above_shadow);
-            } else {
-                mShadowDrawable = getResources().getDrawable(R.drawable.below_shadow);
-            }
+        mFlingDeceleration = FLING_DECELERATION * density;
+        // If the shadow height is zero, don't show the shadow. On Lollipop and above the shadow
+        // is cast by the panel elevation, see updatePanelElevation()
+        if (mShadowHeight > 0 && Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            mShadowDrawable = getSharedShadowDrawable(context, mIsSlidingUp);
         } else {
             mShadowDrawable = null;
         }
 
-        setWillNotDraw(false);
+        setWillNotDraw(mShadowDrawable == null);
 
         mDragHelper = ViewDragHelper.create(this, 0.5f, scrollerInterpolator, new DragHelperCallback());
         mDragHelper.setMinVelocity(mMinFlingVelocity * density);
+        mDragHelper.setMotionPredictionEnabled(dragPrediction);
+        mDragHelper.setDragCoalescingEnabled(coalesceDrag);
+        mDragHelper.setTranslationPositioning(translationPositioning);
+        if (settleEngine != null) {
+            mDragHelper.setSettleEngine(settleEngine);
+        }
 
         mIsTouchEnabled = true;
     }
@@ -351,12 +676,24 @@ public class SlidingUpPanelLayout extends ViewGroup {
     @Override
     protected void onFinishInflate() {
         super.onFinishInflate();
+        if (mPanelLayoutResId != -1 && getChildCount() == 1) {
+            addPanelContentOrPlaceholder();
+        }
         if (mDragViewResId != -1) {
             setDragView(findViewById(mDragViewResId));
         }
         if (mScrollableViewResId != -1) {
             setScrollableView(findViewById(mScrollableViewResId));
         }
+        if (mSlideEffectsResId != -1) {
+            final SlideEffectsInflater inflater =
+                    new SlideEffectsInflater(getContext(), mOffsetBindings, mEdgeAnchors);
+            // Targets in panel content that is not created yet are looked up again when it is
+            inflater.inflate(mSlideEffectsResId, this, mPanelPlaceholder != null);
+            if (inflater.hasPending()) {
+                mPendingSlideEffects = inflater;
+            }
+        }
     }
 
     public void setGravity(int gravity) {
@@ -364,6 +701,7 @@ public class SlidingUpPanelLayout extends ViewGroup {
             throw new IllegalArgumentException("gravity must be set to either top or bottom");
         }
         mIsSlidingUp = gravity == Gravity.BOTTOM;
+        mSnapPointsDirty = true;
         if (!mFirstLayout) {
             requestLayout();
         }
@@ -411,6 +749,7 @@ public class SlidingUpPanelLayout extends ViewGroup {
         }
 
         mPanelHeight = val;
+        mSnapPointsDirty = true;
         if (!mFirstLayout) {
             requestLayout();
         }
@@ -441,10 +780,70 @@ public class SlidingUpPanelLayout extends ViewGroup {
     public void setShadowHeight(int val) {
         mShadowHeight = val;
         if (!mFirstLayout) {
+            updatePanelElevation();
             invalidate();
         }
     }
 
+    /**
+     * Loads the shadow drawable shared by all instances, from the application resources so that
+     * it does not hold on to an activity.
+     */
+    private static Drawable getSharedShadowDrawable(Context context, boolean above) {
+        if (above) {
+            if (sAboveShadowDrawable == null) {
+                sAboveShadowDrawable = context.getApplicationContext().getResources().getDrawable(R.drawable.above_shadow);
+            }
+            return sAboveShadowDrawable;
+        }
+        if (sBelowShadowDrawable == null) {
+            sBelowShadowDrawable = context.getApplicationContext().getResources().getDrawable(R.drawable.below_shadow);
+        }
+        return sBelowShadowDrawable;
+    }
+
+    /**
+     * On Lollipop and above, casts the panel shadow from the elevation of the panel, so that it is
+     * rendered with the panel without any drawing in draw(). An elevation set on the panel by the
+     * app is kept.
+     */
+    @SuppressLint("NewApi")
+    private void updatePanelElevation() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || mSlideableView == null) {
+            return;
+        }
+        if (mElevatedPanel != mSlideableView) {
+            mElevatedPanel = mSlideableView;
+            mAppliedElevation = 0;
+            mBoundsOutlineApplied = false;
+        }
+        final float current = mSlideableView.getElevation();
+        if (current != mAppliedElevation) {
+            // The app set its own elevation on the panel, leave it alone
+            return;
+        }
+        final float elevation = Math.max(mShadowHeight, 0);
+        if (current != elevation) {
+            mSlideableView.setElevation(elevation);
+        }
+        mAppliedElevation = elevation;
+
+        // Without a background there is no outline to cast the shadow from. Only fall back to the
+        // bounds for an opaque panel, a transparent one (umanoClipPanel false) would cast an opaque
+        // rectangular shadow, and never replace an outline provider set by the app
+        final boolean useBounds = elevation > 0 && mClipPanel && mSlideableView.getBackground() == null;
+        final ViewOutlineProvider provider = mSlideableView.getOutlineProvider();
+        if (useBounds && !mBoundsOutlineApplied && provider == ViewOutlineProvider.BACKGROUND) {
+            mSlideableView.setOutlineProvider(ViewOutlineProvider.BOUNDS);
+            mBoundsOutlineApplied = true;
+        } else if (!useBounds && mBoundsOutlineApplied) {
+            if (provider == ViewOutlineProvider.BOUNDS) {
+                mSlideableView.setOutlineProvider(ViewOutlineProvider.BACKGROUND);
+            }
+            mBoundsOutlineApplied = false;
+        }
+    }
+
     /**
      * @return The current collapsed panel height
      */
@@ -489,13 +888,181 @@ public class SlidingUpPanelLayout extends ViewGroup {
         mMinFlingVelocity = val;
     }
 
+    /**
+     * Sets whether the batched historical samples of touch move events are consumed while the
+     * panel is dragged. Enabled by default.
+     *
+     * @param enabled false to only use the latest sample of each move event
+     */
+    public void setHistoricalMotionEnabled(boolean enabled) {
+        mDragHelper.setHistoricalMotionEnabled(enabled);
+    }
+
+    /**
+     * @return true if historical samples of touch move events are consumed while dragging
+     */
+    public boolean isHistoricalMotionEnabled() {
+        return mDragHelper.isHistoricalMotionEnabled();
+    }
+
+    /**
+     * Sets whether the panel position is predicted ahead of the finger while dragging, to cut
+     * the perceived drag latency. Disabled by default.
+     *
+     * @param enabled true to enable drag prediction
+     */
+    public void setDragPredictionEnabled(boolean enabled) {
+        mDragHelper.setMotionPredictionEnabled(enabled);
+    }
+
+    /**
+     * @return true if the panel position is predicted ahead of the finger while dragging
+     */
+    public boolean isDragPredictionEnabled() {
+        return mDragHelper.isMotionPredictionEnabled();
+    }
+
+    /**
+     * Sets whether drag updates are coalesced to one per frame. When enabled, the panel position,
+     * the slide listeners, the parallax and the main view resizing are updated at most once per
+     * frame while dragging, no matter how many touch events arrive. Disabled by default.
+     *
+     * @param enabled true to coalesce drag updates
+     */
+    public void setCoalesceDragEnabled(boolean enabled) {
+        mDragHelper.setDragCoalescingEnabled(enabled);
+    }
+
+    /**
+     * @return true if drag updates are coalesced to one per frame
+     */
+    public boolean isCoalesceDragEnabled() {
+        return mDragHelper.isDragCoalescingEnabled();
+    }
+
+    /**
+     * Sets whether the panel is moved with its translation instead of its layout position. The
+     * panel then stays laid out at its collapsed position, and moving it only changes a property
+     * of its render node, without a layout or a redraw of this layout. Only available on
+     * Honeycomb and above.
+     *
+     * @param enabled true to move the panel with its translation
+     */
+    public void setTranslationPositioning(boolean enabled) {
+        mDragHelper.setTranslationPositioning(enabled);
+        if (!mDragHelper.isTranslationPositioning() && mSlideableView != null) {
+            ViewCompat.setTranslationY(mSlideableView, 0);
+        }
+        requestLayout();
+    }
+
+    /**
+     * @return true if the panel is moved with its translation
+     */
+    public boolean isTranslationPositioning() {
+        return mDragHelper != null && mDragHelper.isTranslationPositioning();
+    }
+
+    /**
+     * @return The top of the panel in this layout, including its translation
+     */
+    private int getSlideableTop() {
+        return mDragHelper != null ? mDragHelper.getViewTop(mSlideableView) : mSlideableView.getTop();
+    }
+
+    /**
+     * @return The bottom of the panel in this layout, including its translation
+     */
+    private int getSlideableBottom() {
+        return getSlideableTop() + mSlideableView.getHeight();
+    }
+
+    /**
+     * Sets the engine computing the panel motion when it settles after a fling or a call to
+     * {@link #setPanelState(PanelState)}. Defaults to a {@link ScrollerSettleEngine} using the
+     * umanoScrollInterpolator, a {@link SpringSettleEngine} can be used instead.
+     *
+     * @param engine the settle engine
+     */
+    public void setSettleEngine(SettleEngine engine) {
+        mDragHelper.setSettleEngine(engine);
+    }
+
+    /**
+     * Sets the estimator used to compute the drag velocity. Defaults to a
+     * {@link RingBufferVelocityEstimator} using a least squares fit.
+     *
+     * @param estimator the velocity estimator
+     */
+    public void setVelocityEstimator(VelocityEstimator estimator) {
+        mDragHelper.setVelocityEstimator(estimator);
+    }
+
     /**
      * Adds a panel slide listener
      *
      * @param listener
      */
     public void addPanelSlideListener(PanelSlideListener listener) {
-        mPanelSlideListeners.add(listener);
+        addPanelSlideListener(listener, SlideDeliveryPolicy.EVERY_CHANGE);
+    }
+
+    /**
+     * Adds a panel slide listener with a delivery policy for its {@link PanelSlideListener#onPanelSlide}
+     * calls. When the panel settles in a state, the listener is always given the exact final
+     * offset before the state change.
+     *
+     * @param listener
+     * @param policy   how often the listener is told about offset changes
+     */
+    public void addPanelSlideListener(PanelSlideListener listener, SlideDeliveryPolicy policy) {
+        addListenerRecord(new SlideListenerRecord(listener,
+                policy != null ? policy : SlideDeliveryPolicy.EVERY_CHANGE));
+    }
+
+    /**
+     * Adds a panel slide listener called on an executor instead of the UI thread, for listeners
+     * such as analytics that do not touch views. Slide offsets are conflated, a slow listener is
+     * given the latest offset when it catches up rather than every one of them. State changes are
+     * all delivered, in order, each after the slide offset the panel had when it changed state.
+     * The listener is never called concurrently.
+     * <p/>
+     * A drag frame writes and reads a volatile field while a delivery is in flight. With a
+     * ScheduledExecutorService the delivery polls the offset once per frame while the panel
+     * moves, so it stays in flight for the whole drag. Any other executor has no way to run a
+     * delivery later, so on the first frame after the listener has caught up, the UI thread also
+     * schedules a new delivery with a compare-and-set and a call to the executor.
+     *
+     * @param listener
+     * @param executor the executor running the listener
+     */
+    public void addPanelSlideListener(PanelSlideListener listener, Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null");
+        }
+        addListenerRecord(new SlideListenerRecord(listener, new ExecutorListenerLane(listener, executor)));
+    }
+
+    /**
+     * Adds a panel slide listener called on the thread of a handler, for instance the one of a
+     * HandlerThread. See {@link #addPanelSlideListener(PanelSlideListener, Executor)}, the
+     * delivery polls the offset once per frame on the handler while the panel moves.
+     *
+     * @param listener
+     * @param handler  the handler running the listener
+     */
+    public void addPanelSlideListener(PanelSlideListener listener, Handler handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("Handler cannot be null");
+        }
+        addListenerRecord(new SlideListenerRecord(listener, new ExecutorListenerLane(listener, handler)));
+    }
+
+    private void addListenerRecord(SlideListenerRecord record) {
+        final SlideListenerRecord[] records = new SlideListenerRecord[mPanelSlideListeners.length + 1];
+        System.arraycopy(mPanelSlideListeners, 0, records, 0, mPanelSlideListeners.length);
+        records[records.length - 1] = record;
+        mPanelSlideListeners = records;
     }
 
     /**
@@ -504,7 +1071,67 @@ public class SlidingUpPanelLayout extends ViewGroup {
      * @param listener
      */
     public void removePanelSlideListener(PanelSlideListener listener) {
-        mPanelSlideListeners.remove(listener);
+        final SlideListenerRecord[] records = mPanelSlideListeners;
+        for (int i = 0; i < records.length; i++) {
+            if (records[i].mListener == listener) {
+                if (records[i].mLane != null) {
+                    records[i].mLane.close();
+                }
+                final SlideListenerRecord[] newRecords = new SlideListenerRecord[records.length - 1];
+                System.arraycopy(records, 0, newRecords, 0, i);
+                System.arraycopy(records, i + 1, newRecords, i, records.length - i - 1);
+                mPanelSlideListeners = newRecords.length > 0 ? newRecords : NO_LISTENERS;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Times every call of the panel slide listeners run on the UI thread, to find the ones that
+     * make a drag jank. A call longer than the budget is reported to the callback, or logged
+     * with the class name of the listener if there is none. Timing is off by default and
+     * costs nothing then.
+     *
+     * @param budgetNanos the longest a listener call should take, 0 to stop timing
+     * @param callback    the callback for calls over the budget, or null to log them
+     */
+    public void setListenerTimeBudget(long budgetNanos, ListenerBudgetCallback callback) {
+        mListenerTimeBudget = Math.max(budgetNanos, 0);
+        mListenerBudgetCallback = callback;
+        final SlideListenerRecord[] records = mPanelSlideListeners;
+        for (int i = 0; i < records.length; i++) {
+            records[i].mTimings = null;
+        }
+    }
+
+    /**
+     * @param listener a listener added with {@link #addPanelSlideListener(PanelSlideListener)}
+     * @return The timings of the listener calls since the time budget was set, or null if they
+     * were not timed
+     */
+    public ListenerTimings getListenerTimings(PanelSlideListener listener) {
+        final SlideListenerRecord[] records = mPanelSlideListeners;
+        for (int i = 0; i < records.length; i++) {
+            if (records[i].mListener == listener) {
+                return records[i].mTimings;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets a listener for the area of the main view left uncovered by the panel. This is useful
+     * with {@link MainContentMode#VIEWPORT}, for instance to adjust the padding of a map.
+     *
+     * @param listener the listener, or null to remove it
+     */
+    public void setMainViewportListener(MainViewportListener listener) {
+        mMainViewportListener = listener;
+        mLastViewportTop = -1;
+        mLastViewportBottom = -1;
+        if (!mFirstLayout) {
+            dispatchOnMainViewportChanged();
+        }
     }
 
     /**
@@ -546,8 +1173,8 @@ public class SlidingUpPanelLayout extends ViewGroup {
                     }
                 }
             });
-            ;
         }
+        mHitRectsDirty = true;
     }
 
     /**
@@ -568,6 +1195,176 @@ public class SlidingUpPanelLayout extends ViewGroup {
      */
     public void setScrollableView(View scrollableView) {
         mScrollableView = scrollableView;
+        mHitRectsDirty = true;
+    }
+
+    /**
+     * Sets a factory creating the panel content the first time the panel is dragged or its state
+     * is set. Until then only a placeholder of the panel height is added as the second child. It
+     * has to be set before the first layout, when the layout only has its main child.
+     *
+     * @param factory The panel content factory
+     */
+    public void setPanelContentFactory(PanelContentFactory factory) {
+        mPanelContentFactory = factory;
+        if (factory != null && getChildCount() == 1) {
+            if (!mFirstLayout) {
+                throw new IllegalStateException("The panel content factory must be set before the first layout");
+            }
+            addPanelContentOrPlaceholder();
+        }
+    }
+
+    /**
+     * Sets whether the panel content layout set with umanoPanelLayout is inflated on a background
+     * thread. Inflation then starts on the first touch-down on the panel and the placeholder takes
+     * the size of the content right away, so the content can be dragged while it is inflated.
+     * Content created by a {@link PanelContentFactory} is always created on the UI thread.
+     *
+     * @param async true to inflate the panel content in the background
+     */
+    public void setAsyncPanelInflation(boolean async) {
+        mAsyncPanelInflation = async;
+    }
+
+    /**
+     * @return true if the panel content layout is inflated on a background thread
+     */
+    public boolean isAsyncPanelInflation() {
+        return mAsyncPanelInflation;
+    }
+
+    /**
+     * Adds a placeholder for the panel content if the panel starts collapsed. The content is
+     * created right away otherwise.
+     */
+    private void addPanelContentOrPlaceholder() {
+        if (mSlideState == PanelState.COLLAPSED) {
+            mPanelPlaceholder = new FrameLayout(getContext());
+            addView(mPanelPlaceholder, new LayoutParams(LayoutParams.MATCH_PARENT, mPanelHeight));
+        } else {
+            addView(createPanelContent());
+        }
+    }
+
+    private View createPanelContent() {
+        if (mPanelContentFactory != null) {
+            return mPanelContentFactory.createPanelContent(this);
+        }
+        return LayoutInflater.from(getContext()).inflate(mPanelLayoutResId, this, false);
+    }
+
+    /**
+     * Replaces the placeholder with the real panel content, if it was not created yet.
+     */
+    private void ensurePanelContent() {
+        if (mPanelPlaceholder == null) {
+            return;
+        }
+        attachPanelContent(createPanelContent());
+    }
+
+    /**
+     * Starts inflating the panel content in the background. The placeholder is given the layout
+     * params of the content's root element right away, so that the content is later added in it at
+     * the same size, and the drag can go on tracking the placeholder.
+     */
+    private void startAsyncPanelInflation() {
+        mPanelInflationStarted = true;
+        final FrameLayout placeholder = mPanelPlaceholder;
+        final LayoutParams lp = loadPanelLayoutParams();
+        mPanelWrapsContent = lp.height == LayoutParams.WRAP_CONTENT;
+        if (mPanelWrapsContent) {
+            // The empty placeholder would measure to nothing, keep its current height until the
+            // content is added to it
+            lp.height = placeholder.getLayoutParams().height;
+        }
+        placeholder.setLayoutParams(lp);
+        measureAndLayoutNow();
+
+        final Context context = getContext();
+        new AsyncPanelInflater().inflate(LayoutInflater.from(context).cloneInContext(context),
+                mPanelLayoutResId, placeholder, new AsyncPanelInflater.Callback() {
+                    @Override
+                    public void onPanelContentInflated(View content) {
+                        // The content may have been created on the UI thread in the meantime
+                        if (mPanelPlaceholder == placeholder) {
+                            attachPanelContent(content);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Parses the layout params of the root element of the panel content layout.
+     */
+    private LayoutParams loadPanelLayoutParams() {
+        final XmlResourceParser parser = getResources().getLayout(mPanelLayoutResId);
+        try {
+            int type;
+            do {
+                type = parser.next();
+            } while (type != XmlPullParser.START_TAG && type != XmlPullParser.END_DOCUMENT);
+            return new LayoutParams(getContext(), Xml.asAttributeSet(parser));
+        } catch (XmlPullParserException | IOException e) {
+            return new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Replaces the placeholder with the panel content.
+     */
+    private void attachPanelContent(View content) {
+        final FrameLayout placeholder = mPanelPlaceholder;
+        mPanelPlaceholder = null;
+        if (mPanelInflationStarted) {
+            // The placeholder already has the size of the content and may be being dragged,
+            // keep it and fill it with the content
+            if (mPanelWrapsContent) {
+                // Only now can the placeholder take the height of the content
+                placeholder.getLayoutParams().height = LayoutParams.WRAP_CONTENT;
+            }
+            placeholder.addView(content, new FrameLayout.LayoutParams(FrameLayout.LayoutParams.MATCH_PARENT,
+                    mPanelWrapsContent ? FrameLayout.LayoutParams.WRAP_CONTENT : FrameLayout.LayoutParams.MATCH_PARENT));
+        } else {
+            removeView(placeholder);
+            addView(content, 1);
+        }
+
+        if (mPanelInflationStarted) {
+            // The placeholder stays the panel and the gesture that started the inflation may still
+            // be going on, keep dragging the placeholder and only use the drag view of the content
+            // from the next touch
+            mResolveDragViewOnDown = mDragViewResId != -1;
+        } else if (mDragViewResId != -1) {
+            setDragView(findViewById(mDragViewResId));
+        } else if (mDragView == placeholder) {
+            setDragView((View) null);
+        }
+        if (mScrollableViewResId != -1) {
+            setScrollableView(findViewById(mScrollableViewResId));
+        }
+        if (mPendingSlideEffects != null) {
+            mPendingSlideEffects.resolvePending(this);
+            mPendingSlideEffects = null;
+        }
+
+        if (!mPanelInflationStarted || mPanelWrapsContent) {
+            // Measure and lay out the content right away, it is about to be dragged or slid, or
+            // the panel height changes with it
+            measureAndLayoutNow();
+        }
+        mHitRectsDirty = true;
+    }
+
+    private void measureAndLayoutNow() {
+        if (!mFirstLayout) {
+            measure(MeasureSpec.makeMeasureSpec(getMeasuredWidth(), MeasureSpec.EXACTLY),
+                    MeasureSpec.makeMeasureSpec(getMeasuredHeight(), MeasureSpec.EXACTLY));
+            layout(getLeft(), getTop(), getRight(), getBottom());
+        }
     }
 
     /**
@@ -587,34 +1384,143 @@ public class SlidingUpPanelLayout extends ViewGroup {
     public void setAnchorPoint(float anchorPoint) {
         if (anchorPoint > 0 && anchorPoint <= 1) {
             mAnchorPoint = anchorPoint;
+            mSnapPointsDirty = true;
             mFirstLayout = true;
             requestLayout();
         }
     }
 
     /**
-     * Gets the currently set anchor point
+     * Gets the currently set anchor point
+     *
+     * @return the currently set anchor point
+     */
+    public float getAnchorPoint() {
+        return mAnchorPoint;
+    }
+
+    /**
+     * Sets whether or not the panel overlays the content
+     *
+     * @param overlayed
+     */
+    public void setOverlayed(boolean overlayed) {
+        mOverlayContent = overlayed;
+        if (!mFirstLayout) {
+            updateMainViewClipBounds();
+        }
+    }
+
+    /**
+     * Check if the panel is set as an overlay.
+     */
+    public boolean isOverlayed() {
+        return mOverlayContent;
+    }
+
+    /**
+     * Sets how the main content is sized while the panel hides and shows in non-overlay mode.
+     * With {@link MainContentMode#DEFERRED_RESIZE} the main content is not measured and laid out
+     * on every drag frame, only once when the panel settles.
+     *
+     * @param mode the main content mode
+     */
+    public void setMainContentMode(MainContentMode mode) {
+        mMainContentMode = mode != null ? mode : DEFAULT_MAIN_CONTENT_MODE;
+        if (mMainViewEnlarged && mMainContentMode != MainContentMode.DEFERRED_RESIZE) {
+            applyMainViewHeight();
+        }
+        if (mMainContentMode == MainContentMode.VIEWPORT && mMainView != null) {
+            mMainView.getLayoutParams().height = LayoutParams.MATCH_PARENT;
+        }
+        requestLayout();
+    }
+
+    /**
+     * @return The current main content mode
+     */
+    public MainContentMode getMainContentMode() {
+        return mMainContentMode;
+    }
+
+    /**
+     * Sets which views are kept on hardware layers while the panel is dragged or settles. Only
+     * views that are hardware accelerated and have no layer of their own are promoted, and their
+     * layer is dropped if they keep invalidating their content during the motion.
+     *
+     * @param policy the motion layer policy
+     */
+    public void setMotionLayerPolicy(MotionLayerPolicy policy) {
+        mMotionLayerPolicy = policy != null ? policy : MotionLayerPolicy.NONE;
+    }
+
+    /**
+     * @return The current motion layer policy
+     */
+    public MotionLayerPolicy getMotionLayerPolicy() {
+        return mMotionLayerPolicy;
+    }
+
+    /**
+     * Binds a property of a view to the slide offset. The property is interpolated linearly
+     * between the keyframes and keeps the first and last values outside of them. Bindings are
+     * applied on the same frame as the panel move.
+     *
+     * @param view     The view to animate, anywhere in the layout
+     * @param property The property to animate
+     * @param offsets  Slide offsets of the keyframes, in increasing order
+     * @param values   Values of the property at the keyframes, in pixels for translations
+     */
+    public void addOffsetBinding(View view, OffsetProperty property, float[] offsets, float[] values) {
+        mOffsetBindings.add(view, property.ordinal(), offsets, values);
+        mOffsetBindings.apply(mSlideOffset);
+    }
+
+    /**
+     * Removes all the slide offset bindings of a view. Its properties keep their last values.
      *
-     * @return the currently set anchor point
+     * @param view The view the bindings were added for
      */
-    public float getAnchorPoint() {
-        return mAnchorPoint;
+    public void removeOffsetBindings(View view) {
+        mOffsetBindings.remove(view);
     }
 
     /**
-     * Sets whether or not the panel overlays the content
+     * Keeps a view of the main content at a distance from the moving edge of the panel, above
+     * its top when the panel slides up and below its bottom otherwise, for instance a floating
+     * action button riding on the panel. The view is moved with its translation on the same
+     * frame as the panel, without being laid out again.
      *
-     * @param overlayed
+     * @param view   A descendant of the main view
+     * @param offset Distance in pixels between the view and the panel edge
      */
-    public void setOverlayed(boolean overlayed) {
-        mOverlayContent = overlayed;
+    public void addPanelEdgeAnchor(View view, int offset) {
+        mEdgeAnchors.add(view, offset);
+        if (!mFirstLayout && mMainView != null && !isDescendant(view, mMainView)) {
+            Log.w(TAG, "The edge anchored view is not in the main view, it only follows the panel "
+                    + "once it is added to it");
+        }
+        if (!mFirstLayout) {
+            mEdgeAnchors.updateBasePositions(this, mMainView);
+            applyEdgeAnchors();
+        }
     }
 
     /**
-     * Check if the panel is set as an overlay.
+     * Stops a view from following the panel edge and resets its translation.
+     *
+     * @param view The view anchored with {@link #addPanelEdgeAnchor(View, int)}
      */
-    public boolean isOverlayed() {
-        return mOverlayContent;
+    public void removePanelEdgeAnchor(View view) {
+        mEdgeAnchors.remove(view);
+    }
+
+    private void applyEdgeAnchors() {
+        if (mEdgeAnchors.isEmpty() || mSlideableView == null) {
+            return;
+        }
+        final int edge = mIsSlidingUp ? getSlideableTop() : getSlideableBottom();
+        mEdgeAnchors.apply(edge, mIsSlidingUp, mParallaxOffset > 0 ? getCurrentParallaxOffset() : 0);
     }
 
     /**
@@ -624,6 +1530,11 @@ public class SlidingUpPanelLayout extends ViewGroup {
      */
     public void setClipPanel(boolean clip) {
         mClipPanel = clip;
+        if (!mFirstLayout) {
+            updatePanelElevation();
+            updateMainViewClipBounds();
+            invalidate();
+        }
     }
 
     /**
@@ -634,18 +1545,88 @@ public class SlidingUpPanelLayout extends ViewGroup {
     }
 
     void dispatchOnPanelSlide(View panel) {
-        for (PanelSlideListener l : mPanelSlideListeners) {
-            l.onPanelSlide(panel, mSlideOffset);
+        // Listeners added or removed during the dispatch take effect on the next one
+        final SlideListenerRecord[] records = mPanelSlideListeners;
+        boolean postFrame = false;
+        for (int i = 0; i < records.length; i++) {
+            final SlideListenerRecord record = records[i];
+            final SlideDeliveryPolicy policy = record.mPolicy;
+            if (record.mLane != null) {
+                record.mLane.postSlide(panel, mSlideOffset);
+            } else if (policy.mOncePerFrame) {
+                record.mPending = true;
+                postFrame = true;
+            } else if (policy.mQuantum <= 0 || Float.isNaN(record.mLastOffset)
+                    || Math.floor(mSlideOffset / policy.mQuantum) != Math.floor(record.mLastOffset / policy.mQuantum)) {
+                deliverSlide(record, panel);
+            } else {
+                record.mPending = true;
+            }
+        }
+        if (postFrame && !mSlideFramePosted) {
+            mSlideFramePosted = true;
+            ViewCompat.postOnAnimation(this, mSlideFrameRunnable);
         }
     }
 
     void dispatchOnPanelStateChanged(View panel, PanelState previousState, PanelState newState) {
-        for (PanelSlideListener l : mPanelSlideListeners) {
-            l.onPanelStateChanged(panel, previousState, newState);
+        final SlideListenerRecord[] records = mPanelSlideListeners;
+        if (newState != PanelState.DRAGGING) {
+            // Give throttled listeners the exact offset the panel settled at
+            for (int i = 0; i < records.length; i++) {
+                if (records[i].mPending) {
+                    deliverSlide(records[i], panel);
+                }
+            }
+        }
+        for (int i = 0; i < records.length; i++) {
+            if (records[i].mLane != null) {
+                records[i].mLane.postStateChange(panel, previousState, newState, mSlideOffset);
+            } else {
+                deliverStateChanged(records[i], panel, previousState, newState);
+            }
         }
         sendAccessibilityEvent(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED);
     }
 
+    private void deliverSlide(SlideListenerRecord record, View panel) {
+        if (mListenerTimeBudget <= 0) {
+            record.deliver(panel, mSlideOffset);
+            return;
+        }
+        final long start = System.nanoTime();
+        record.deliver(panel, mSlideOffset);
+        onListenerTimed(record, System.nanoTime() - start);
+    }
+
+    private void deliverStateChanged(SlideListenerRecord record, View panel, PanelState previousState, PanelState newState) {
+        if (mListenerTimeBudget <= 0) {
+            record.mListener.onPanelStateChanged(panel, previousState, newState);
+            return;
+        }
+        final long start = System.nanoTime();
+        record.mListener.onPanelStateChanged(panel, previousState, newState);
+        onListenerTimed(record, System.nanoTime() - start);
+    }
+
+    private void onListenerTimed(SlideListenerRecord record, long durationNanos) {
+        if (record.mTimings == null) {
+            record.mTimings = new ListenerTimings();
+        }
+        final ListenerTimings timings = record.mTimings;
+        timings.add(durationNanos);
+        if (durationNanos <= mListenerTimeBudget) {
+            return;
+        }
+        timings.mOverrunCount++;
+        if (mListenerBudgetCallback != null) {
+            mListenerBudgetCallback.onListenerOverBudget(record.mListener, durationNanos, timings);
+        } else {
+            Log.w(TAG, record.mListener.getClass().getName() + " took " + durationNanos / 1000 + "us, over the "
+                    + mListenerTimeBudget / 1000 + "us budget, " + timings);
+        }
+    }
+
     void updateObscuredViewVisibility() {
         if (getChildCount() == 0) {
             return;
@@ -661,8 +1642,8 @@ public class SlidingUpPanelLayout extends ViewGroup {
         if (mSlideableView != null && hasOpaqueBackground(mSlideableView)) {
             left = mSlideableView.getLeft();
             right = mSlideableView.getRight();
-            top = mSlideableView.getTop();
-            bottom = mSlideableView.getBottom();
+            top = getSlideableTop();
+            bottom = getSlideableBottom();
         } else {
             left = right = top = bottom = 0;
         }
@@ -699,12 +1680,14 @@ public class SlidingUpPanelLayout extends ViewGroup {
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
         mFirstLayout = true;
+        getViewTreeObserver().addOnScrollChangedListener(mHitRectsScrollListener);
     }
 
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         mFirstLayout = true;
+        getViewTreeObserver().removeOnScrollChangedListener(mHitRectsScrollListener);
     }
 
     @Override
@@ -726,8 +1709,14 @@ public class SlidingUpPanelLayout extends ViewGroup {
             throw new IllegalStateException("Sliding up panel layout must have exactly 2 children!");
         }
 
-        mMainView = getChildAt(0);
-        mSlideableView = getChildAt(1);
+        final View mainView = getChildAt(0);
+        final View slideableView = getChildAt(1);
+        if (mainView != mMainView || slideableView != mSlideableView) {
+            mMainView = mainView;
+            mSlideableView = slideableView;
+            mHitRectsDirty = true;
+            mAppliedParallaxOffset = Integer.MIN_VALUE;
+        }
         if (mDragView == null) {
             setDragView(mSlideableView);
         }
@@ -753,7 +1742,8 @@ public class SlidingUpPanelLayout extends ViewGroup {
             int height = layoutHeight;
             int width = layoutWidth;
             if (child == mMainView) {
-                if (!mOverlayContent && mSlideState != PanelState.HIDDEN) {
+                if (!mOverlayContent && mSlideState != PanelState.HIDDEN && !mMainViewEnlarged
+                        && mMainContentMode != MainContentMode.VIEWPORT) {
                     height -= mPanelHeight;
                 }
 
@@ -774,7 +1764,10 @@ public class SlidingUpPanelLayout extends ViewGroup {
             }
 
             int childHeightSpec;
-            if (lp.height == LayoutParams.WRAP_CONTENT) {
+            if (child == mMainView && mMainViewEnlarged) {
+                // Keep the main view at its full size until the panel settles
+                childHeightSpec = MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY);
+            } else if (lp.height == LayoutParams.WRAP_CONTENT) {
                 childHeightSpec = MeasureSpec.makeMeasureSpec(height, MeasureSpec.AT_MOST);
             } else {
                 // Modify the height based on the weight.
@@ -786,10 +1779,27 @@ public class SlidingUpPanelLayout extends ViewGroup {
                 childHeightSpec = MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY);
             }
 
-            child.measure(childWidthSpec, childHeightSpec);
+            // Only measure a child whose specs changed or that requested a layout itself, so that a
+            // layout request from inside the panel does not measure the main view again.
+            // A hidden panel is not measured again until it is shown.
+            final boolean measured = lp.mMeasuredWidthSpec != LayoutParams.UNMEASURED;
+            if (!measured || lp.mMeasureDeferred || child.isLayoutRequested()
+                    || lp.mMeasuredWidthSpec != childWidthSpec || lp.mMeasuredHeightSpec != childHeightSpec) {
+                if (measured && child == mSlideableView && mSlideState == PanelState.HIDDEN
+                        && child.getVisibility() != VISIBLE) {
+                    lp.mMeasureDeferred = true;
+                } else {
+                    child.measure(childWidthSpec, childHeightSpec);
+                    lp.mMeasuredWidthSpec = childWidthSpec;
+                    lp.mMeasuredHeightSpec = childHeightSpec;
+                    lp.mMeasureDeferred = false;
+                    lp.mNeedsLayout = true;
+                }
+            }
 
             if (child == mSlideableView) {
                 mSlideRange = mSlideableView.getMeasuredHeight() - mPanelHeight;
+                mSnapPointsDirty = true;
             }
         }
 
@@ -834,33 +1844,59 @@ public class SlidingUpPanelLayout extends ViewGroup {
             int childTop = paddingTop;
 
             if (child == mSlideableView) {
-                childTop = computePanelTopPosition(mSlideOffset);
+                // With translation positioning the panel stays laid out collapsed
+                childTop = computePanelTopPosition(isTranslationPositioning() ? 0.0f : mSlideOffset);
             }
 
-            if (!mIsSlidingUp) {
-                if (child == mMainView && !mOverlayContent) {
+            if (!mIsSlidingUp && child == mMainView && !mOverlayContent
+                    && mMainContentMode != MainContentMode.VIEWPORT) {
+                if (!mMainViewEnlarged) {
                     childTop = computePanelTopPosition(mSlideOffset) + mSlideableView.getMeasuredHeight();
+                } else if (!mFirstLayout) {
+                    // Grow the enlarged main view downwards from where it is, so that its content
+                    // does not move until the panel settles
+                    childTop = child.getTop();
                 }
             }
             final int childBottom = childTop + childHeight;
             final int childLeft = paddingLeft + lp.leftMargin;
             final int childRight = childLeft + child.getMeasuredWidth();
 
-            child.layout(childLeft, childTop, childRight, childBottom);
+            if (lp.mNeedsLayout || child.isLayoutRequested() || child.getLeft() != childLeft
+                    || child.getWidth() != child.getMeasuredWidth() || child.getHeight() != childHeight) {
+                child.layout(childLeft, childTop, childRight, childBottom);
+                lp.mNeedsLayout = false;
+            } else if (child.getTop() != childTop) {
+                // Only the position changed, move the child without laying it out again
+                child.offsetTopAndBottom(childTop - child.getTop());
+            }
+            if (child == mSlideableView && isTranslationPositioning()) {
+                ViewCompat.setTranslationY(child, computePanelTopPosition(mSlideOffset) - childTop);
+            }
         }
 
         if (mFirstLayout) {
             updateObscuredViewVisibility();
         }
         applyParallaxForCurrentSlideOffset();
+        mOffsetBindings.apply(mSlideOffset);
+        mEdgeAnchors.updateBasePositions(this, mMainView);
+        applyEdgeAnchors();
+        updateHitRects();
+        mSnapPointsDirty = true;
+        updatePanelElevation();
 
         mFirstLayout = false;
+        updateMainViewClipBounds();
+        updateCoveredFadeScrim();
+        dispatchOnMainViewportChanged();
     }
 
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
         // Recalculate sliding panes and their details
+        mSnapPointsDirty = true;
         if (h != oldh) {
             mFirstLayout = true;
         }
@@ -883,14 +1919,26 @@ public class SlidingUpPanelLayout extends ViewGroup {
 
         switch (action) {
             case MotionEvent.ACTION_DOWN: {
+                if (mResolveDragViewOnDown) {
+                    mResolveDragViewOnDown = false;
+                    setDragView(findViewById(mDragViewResId));
+                }
                 mIsUnableToDrag = false;
                 mInitialMotionX = x;
                 mInitialMotionY = y;
+                if (mPanelPlaceholder != null && isViewUnder(mSlideableView, mSlideableViewHitRect, (int) x, (int) y)) {
+                    if (!mAsyncPanelInflation || mPanelContentFactory != null || mPanelLayoutResId == -1) {
+                        ensurePanelContent();
+                    } else if (!mPanelInflationStarted) {
+                        startAsyncPanelInflation();
+                    }
+                }
                 break;
             }
 
             case MotionEvent.ACTION_MOVE: {
-                if ((ady > dragSlop && adx > ady) || !isViewUnder(mDragView, (int) mInitialMotionX, (int) mInitialMotionY)) {
+                if ((ady > dragSlop && adx > ady)
+                        || !isViewUnder(mDragView, mDragViewHitRect, (int) mInitialMotionX, (int) mInitialMotionY)) {
                     mDragHelper.cancel();
                     mIsUnableToDrag = true;
                     return false;
@@ -910,7 +1958,9 @@ public class SlidingUpPanelLayout extends ViewGroup {
                 // Check if this was a click on the faded part of the screen, and fire off the listener if there is one.
                 if (ady <= dragSlop
                         && adx <= dragSlop
-                        && mSlideOffset > 0 && !isViewUnder(mSlideableView, (int) mInitialMotionX, (int) mInitialMotionY) && mFadeOnClickListener != null) {
+                        && mSlideOffset > 0
+                        && !isViewUnder(mSlideableView, mSlideableViewHitRect, (int) mInitialMotionX, (int) mInitialMotionY)
+                        && mFadeOnClickListener != null) {
                     playSoundEffect(android.view.SoundEffectConstants.CLICK);
                     mFadeOnClickListener.onClick(this);
                     return true;
@@ -954,7 +2004,8 @@ public class SlidingUpPanelLayout extends ViewGroup {
 
             // If the scroll view isn't under the touch, pass the
             // event along to the dragView.
-            if (!isViewUnder(mScrollableView, (int) mInitialMotionX, (int) mInitialMotionY)) {
+            if (!isViewUnder(mScrollableView, mScrollableViewHitRect,
+                    (int) mInitialMotionX, (int) mInitialMotionY)) {
                 return super.dispatchTouchEvent(ev);
             }
 
@@ -1015,16 +2066,84 @@ public class SlidingUpPanelLayout extends ViewGroup {
         return super.dispatchTouchEvent(ev);
     }
 
-    private boolean isViewUnder(View view, int x, int y) {
+    /**
+     * Hit tests the given point, in this layout's coordinates, against the cached bounds of view.
+     */
+    private boolean isViewUnder(View view, Rect hitRect, int x, int y) {
         if (view == null) return false;
-        int[] viewLocation = new int[2];
-        view.getLocationOnScreen(viewLocation);
-        int[] parentLocation = new int[2];
-        this.getLocationOnScreen(parentLocation);
-        int screenX = parentLocation[0] + x;
-        int screenY = parentLocation[1] + y;
-        return screenX >= viewLocation[0] && screenX < viewLocation[0] + view.getWidth() &&
-                screenY >= viewLocation[1] && screenY < viewLocation[1] + view.getHeight();
+        if (mHitRectsDirty) {
+            updateHitRects();
+        }
+        return hitRect.contains(x, y);
+    }
+
+    /**
+     * Rebuilds the cached hit rects of the drag, scrollable and slideable views.
+     */
+    private void updateHitRects() {
+        computeHitRect(mDragView, mDragViewHitRect);
+        computeHitRect(mScrollableView, mScrollableViewHitRect);
+        computeHitRect(mSlideableView, mSlideableViewHitRect);
+        mHitRectsDirty = false;
+    }
+
+    /**
+     * Computes the bounds of view in this layout's coordinates.
+     */
+    private void computeHitRect(View view, Rect outRect) {
+        if (view == null) {
+            outRect.setEmpty();
+            return;
+        }
+        outRect.set(0, 0, view.getWidth(), view.getHeight());
+        if (view == this) {
+            return;
+        }
+        if (isDescendant(view, this)) {
+            offsetDescendantRectToMyCoords(view, outRect);
+            // Translations, such as the panel one with translation positioning or the ones set by
+            // offset bindings, are not part of the layout positions
+            float translationX = 0;
+            float translationY = 0;
+            for (View v = view; v != this; v = (View) v.getParent()) {
+                translationX += ViewCompat.getTranslationX(v);
+                translationY += ViewCompat.getTranslationY(v);
+            }
+            outRect.offset(Math.round(translationX), Math.round(translationY));
+        } else {
+            // The view lives outside of this layout, fall back to the screen positions
+            view.getLocationOnScreen(mTmpViewLocation);
+            getLocationOnScreen(mTmpParentLocation);
+            outRect.offset(mTmpViewLocation[0] - mTmpParentLocation[0],
+                    mTmpViewLocation[1] - mTmpParentLocation[1]);
+        }
+    }
+
+    static boolean isDescendant(View view, View ancestor) {
+        ViewParent parent = view.getParent();
+        while (parent instanceof View) {
+            if (parent == ancestor) {
+                return true;
+            }
+            parent = parent.getParent();
+        }
+        return false;
+    }
+
+    /**
+     * @return The table of top positions the panel can rest at, rebuilt if they changed
+     */
+    private SnapPoints getSnapPoints() {
+        if (mSnapPointsDirty) {
+            mSnapPoints.clear();
+            mSnapPoints.add(computePanelTopPosition(0.0f));
+            if (mAnchorPoint < 1.0f) {
+                mSnapPoints.add(computePanelTopPosition(mAnchorPoint));
+            }
+            mSnapPoints.add(computePanelTopPosition(1.0f));
+            mSnapPointsDirty = false;
+        }
+        return mSnapPoints;
     }
 
     /*
@@ -1076,6 +2195,8 @@ public class SlidingUpPanelLayout extends ViewGroup {
                 || state == mSlideState
                 || mSlideState == PanelState.DRAGGING) return;
 
+        ensurePanelContent();
+
         if (mFirstLayout) {
             setPanelStateInternal(state);
         } else {
@@ -1115,6 +2236,10 @@ public class SlidingUpPanelLayout extends ViewGroup {
     private void applyParallaxForCurrentSlideOffset() {
         if (mParallaxOffset > 0) {
             int mainViewOffset = getCurrentParallaxOffset();
+            if (mainViewOffset == mAppliedParallaxOffset) {
+                return;
+            }
+            mAppliedParallaxOffset = mainViewOffset;
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
                 mMainView.setTranslationY(mainViewOffset);
             } else {
@@ -1129,26 +2254,89 @@ public class SlidingUpPanelLayout extends ViewGroup {
         // Recompute the slide offset based on the new top position
         mSlideOffset = computeSlideOffset(newTop);
         applyParallaxForCurrentSlideOffset();
+        mOffsetBindings.apply(mSlideOffset);
+        applyEdgeAnchors();
+        updateHitRects();
+        updateMainViewClipBounds();
+        updateCoveredFadeScrim();
+        mMotionLayers.onFrame();
         // Dispatch the slide event
         dispatchOnPanelSlide(mSlideableView);
         // If the slide offset is negative, and overlay is not on, we need to increase the
         // height of the main content
+        dispatchOnMainViewportChanged();
+        if (mOverlayContent || mMainContentMode == MainContentMode.VIEWPORT) {
+            return;
+        }
+        if (mMainContentMode == MainContentMode.DEFERRED_RESIZE) {
+            // Give the main view its full size once and let drawChild clip it to the panel,
+            // the real height is applied when the panel settles
+            if (mSlideOffset < 0 && !mMainViewEnlarged) {
+                mMainViewEnlarged = true;
+                mMainView.requestLayout();
+            }
+        } else {
+            updateMainViewHeight(newTop);
+        }
+    }
+
+    /**
+     * Resizes the main view to fill the space left by the panel at the given top position.
+     */
+    private void updateMainViewHeight(int panelTop) {
         LayoutParams lp = (LayoutParams) mMainView.getLayoutParams();
         int defaultHeight = getHeight() - getPaddingBottom() - getPaddingTop() - mPanelHeight;
 
-        if (mSlideOffset <= 0 && !mOverlayContent) {
+        if (mSlideOffset <= 0) {
             // expand the main view
-            lp.height = mIsSlidingUp ? (newTop - getPaddingBottom()) : (getHeight() - getPaddingBottom() - mSlideableView.getMeasuredHeight() - newTop);
+            lp.height = mIsSlidingUp ? (panelTop - getPaddingBottom())
+                    : (getHeight() - getPaddingBottom() - mSlideableView.getMeasuredHeight() - panelTop);
             if (lp.height == defaultHeight) {
                 lp.height = LayoutParams.MATCH_PARENT;
             }
             mMainView.requestLayout();
-        } else if (lp.height != LayoutParams.MATCH_PARENT && !mOverlayContent) {
+        } else if (lp.height != LayoutParams.MATCH_PARENT) {
             lp.height = LayoutParams.MATCH_PARENT;
             mMainView.requestLayout();
         }
     }
 
+    /**
+     * Reports the area of the main view left uncovered by the panel, if it changed.
+     */
+    private void dispatchOnMainViewportChanged() {
+        if (mMainViewportListener == null || mMainView == null || mSlideableView == null) {
+            return;
+        }
+        final int layoutTop = getPaddingTop();
+        final int layoutBottom = getHeight() - getPaddingBottom();
+        int top = layoutTop;
+        int bottom = layoutBottom;
+        if (mSlideableView.getVisibility() != GONE) {
+            if (mIsSlidingUp) {
+                bottom = Math.max(Math.min(getSlideableTop(), layoutBottom), layoutTop);
+            } else {
+                top = Math.min(Math.max(getSlideableBottom(), layoutTop), layoutBottom);
+            }
+        }
+        if (top == mLastViewportTop && bottom == mLastViewportBottom) {
+            return;
+        }
+        mLastViewportTop = top;
+        mLastViewportBottom = bottom;
+        mViewportInsets.set(0, Math.max(top - mMainView.getTop(), 0), 0, Math.max(mMainView.getBottom() - bottom, 0));
+        mMainViewportListener.onMainViewportChanged(mMainView, top, bottom, mViewportInsets);
+    }
+
+    /**
+     * Applies the real height of an enlarged main view for the current panel position.
+     */
+    private void applyMainViewHeight() {
+        mMainViewEnlarged = false;
+        updateMainViewHeight(getSlideableTop());
+        mMainView.requestLayout();
+    }
+
     @Override
     protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
         boolean result;
@@ -1160,18 +2348,19 @@ public class SlidingUpPanelLayout extends ViewGroup {
             canvas.getClipBounds(mTmpRect);
             if (!mOverlayContent) {
                 if (mIsSlidingUp) {
-                    mTmpRect.bottom = Math.min(mTmpRect.bottom, mSlideableView.getTop());
+                    mTmpRect.bottom = Math.min(mTmpRect.bottom, getSlideableTop());
                 } else {
-                    mTmpRect.top = Math.max(mTmpRect.top, mSlideableView.getBottom());
+                    mTmpRect.top = Math.max(mTmpRect.top, getSlideableBottom());
                 }
             }
-            if (mClipPanel) {
+            // In viewport mode the main view is never clipped, the covered part is reported instead
+            if (mClipPanel && mMainContentMode != MainContentMode.VIEWPORT && !mMainViewClipBoundsSet) {
                 canvas.clipRect(mTmpRect);
             }
 
             result = super.drawChild(canvas, child, drawingTime);
 
-            if (mCoveredFadeColor != 0 && mSlideOffset > 0) {
+            if (mCoveredFadeColor != 0 && mSlideOffset > 0 && mCoveredFadeScrimHost == null) {
                 final int baseAlpha = (mCoveredFadeColor & 0xff000000) >>> 24;
                 final int imag = (int) (baseAlpha * mSlideOffset);
                 final int color = imag << 24 | (mCoveredFadeColor & 0xffffff);
@@ -1187,6 +2376,126 @@ public class SlidingUpPanelLayout extends ViewGroup {
         return result;
     }
 
+    /**
+     * @return true if this layout has to be redrawn when the panel moves. It does not when the
+     * panel moves with its translation and nothing drawn by this layout depends on its position:
+     * no shadow drawable, no main view clip in drawChild and no covered fade in drawChild.
+     */
+    private boolean needsParentRedrawOnPanelMove() {
+        return !isTranslationPositioning()
+                || mShadowDrawable != null
+                || (mClipPanel && !mOverlayContent && mMainContentMode != MainContentMode.VIEWPORT && !mMainViewClipBoundsSet)
+                || (mCoveredFadeColor != 0 && mCoveredFadeScrimHost == null);
+    }
+
+    /**
+     * Invalidates what a panel move from oldTop to newTop changes: the area covered by the panel
+     * before and after the move, which includes the edge the main view is clipped at, and its
+     * shadow. The whole layout is invalidated if the fade is drawn by drawChild, since the fade of
+     * the whole uncovered main view changes with the offset.
+     */
+    private void invalidatePanelMove(View panel, int oldTop, int newTop) {
+        if (!needsParentRedrawOnPanelMove()) {
+            return;
+        }
+        if (mCoveredFadeColor != 0 && mCoveredFadeScrimHost == null
+                && (mSlideOffset > 0 || computeSlideOffset(oldTop) > 0)) {
+            invalidate();
+            return;
+        }
+        final int shadowHeight = mShadowDrawable != null ? mShadowHeight : 0;
+        int top = Math.min(oldTop, newTop);
+        int bottom = Math.max(oldTop, newTop) + panel.getHeight();
+        if (mIsSlidingUp) {
+            top -= shadowHeight;
+        } else {
+            bottom += shadowHeight;
+        }
+        invalidate(0, top, getWidth(), bottom);
+    }
+
+    /**
+     * Updates the scrim fading the main view for the current slide offset. The scrim is only used
+     * on API 18+ when the main view is a ViewGroup, the fade is drawn in drawChild otherwise.
+     */
+    @SuppressLint("NewApi")
+    private void updateCoveredFadeScrim() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return;
+        }
+        if (mCoveredFadeScrimHost != null && (mCoveredFadeScrimHost != mMainView || mCoveredFadeColor == 0)) {
+            mCoveredFadeScrimHost.getOverlay().remove(mCoveredFadeScrim);
+            mCoveredFadeScrimHost = null;
+        }
+        if (mCoveredFadeColor == 0 || !(mMainView instanceof ViewGroup) || mSlideableView == null) {
+            return;
+        }
+        if (mCoveredFadeScrimHost == null) {
+            if (mCoveredFadeScrim == null) {
+                mCoveredFadeScrim = new View(getContext()) {
+                    @Override
+                    public boolean hasOverlappingRendering() {
+                        // A plain color, its alpha does not need an offscreen buffer
+                        return false;
+                    }
+                };
+            }
+            mCoveredFadeScrimHost = (ViewGroup) mMainView;
+            mCoveredFadeScrimHost.getOverlay().add(mCoveredFadeScrim);
+        }
+        mCoveredFadeScrim.setBackgroundColor(mCoveredFadeColor);
+
+        // Like in drawChild, only fade the part of the main view that is not covered by the panel
+        final Rect rect = getUncoveredMainViewRect();
+        if (mCoveredFadeScrim.getTop() != rect.top || mCoveredFadeScrim.getBottom() != rect.bottom
+                || mCoveredFadeScrim.getRight() != rect.right) {
+            mCoveredFadeScrim.layout(rect.left, rect.top, rect.right, rect.bottom);
+        }
+        mCoveredFadeScrim.setAlpha(Math.max(mSlideOffset, 0));
+    }
+
+    /**
+     * On Nougat and above, clips the main view to the panel with its clip bounds, a property of its
+     * render node, so that its display list does not have to be recorded again as the panel moves.
+     * The main view is clipped in drawChild otherwise.
+     */
+    @SuppressLint("NewApi")
+    private void updateMainViewClipBounds() {
+        // Before Nougat setting the clip bounds records the view again, see drawChild
+        if (Build.VERSION.SDK_INT < 24 || mMainView == null || mSlideableView == null) {
+            return;
+        }
+        if (mClipPanel && !mOverlayContent && mMainContentMode != MainContentMode.VIEWPORT) {
+            mMainView.setClipBounds(getUncoveredMainViewRect());
+            mMainViewClipBoundsSet = true;
+        } else if (mMainViewClipBoundsSet) {
+            mMainView.setClipBounds(null);
+            mMainViewClipBoundsSet = false;
+        }
+    }
+
+    /**
+     * @return The part of the main view not covered by the panel, in the main view coordinates
+     */
+    @SuppressLint("NewApi")
+    private Rect getUncoveredMainViewRect() {
+        final Rect rect = mUncoveredRect;
+        rect.set(0, 0, mMainView.getWidth(), mMainView.getHeight());
+        if (!mOverlayContent) {
+            int mainViewTop = mMainView.getTop();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                mainViewTop += (int) mMainView.getTranslationY();
+            }
+            if (mIsSlidingUp) {
+                rect.bottom = Math.min(rect.bottom, getSlideableTop() - mainViewTop);
+            } else {
+                rect.top = Math.max(rect.top, getSlideableBottom() - mainViewTop);
+            }
+            rect.bottom = Math.max(rect.bottom, rect.top);
+        }
+        return rect;
+    }
+
     /**
      * Smoothly animate mDraggingPane to the target X position within its range.
      *
@@ -1202,15 +2511,42 @@ public class SlidingUpPanelLayout extends ViewGroup {
         int panelTop = computePanelTopPosition(slideOffset);
         if (mDragHelper.smoothSlideViewTo(mSlideableView, mSlideableView.getLeft(), panelTop)) {
             setAllChildrenVisible();
-            ViewCompat.postInvalidateOnAnimation(this);
+            postSettleFrame();
             return true;
         }
         return false;
     }
 
+    /**
+     * Schedules the next frame of the settle animation. With translation positioning moving the
+     * panel does not redraw this layout, so the animation is driven by an animation callback
+     * instead of computeScroll.
+     */
+    private void postSettleFrame() {
+        if (isTranslationPositioning()) {
+            removeCallbacks(mSettleRunnable);
+            ViewCompat.postOnAnimation(this, mSettleRunnable);
+        } else {
+            ViewCompat.postInvalidateOnAnimation(this);
+        }
+    }
+
+    private final Runnable mSettleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mDragHelper.continueSettling(true)) {
+                if (!isEnabled()) {
+                    mDragHelper.abort();
+                    return;
+                }
+                ViewCompat.postOnAnimation(SlidingUpPanelLayout.this, this);
+            }
+        }
+    };
+
     @Override
     public void computeScroll() {
-        if (mDragHelper != null && mDragHelper.continueSettling(true)) {
+        if (mDragHelper != null && !isTranslationPositioning() && mDragHelper.continueSettling(true)) {
             if (!isEnabled()) {
                 mDragHelper.abort();
                 return;
@@ -1230,11 +2566,11 @@ public class SlidingUpPanelLayout extends ViewGroup {
             final int top;
             final int bottom;
             if (mIsSlidingUp) {
-                top = mSlideableView.getTop() - mShadowHeight;
-                bottom = mSlideableView.getTop();
+                top = getSlideableTop() - mShadowHeight;
+                bottom = getSlideableTop();
             } else {
-                top = mSlideableView.getBottom();
-                bottom = mSlideableView.getBottom() + mShadowHeight;
+                top = getSlideableBottom();
+                bottom = getSlideableBottom() + mShadowHeight;
             }
             final int left = mSlideableView.getLeft();
             mShadowDrawable.setBounds(left, top, right, bottom);
@@ -1314,6 +2650,10 @@ public class SlidingUpPanelLayout extends ViewGroup {
         SavedState ss = (SavedState) state;
         super.onRestoreInstanceState(ss.getSuperState());
         mSlideState = ss.mSlideState != null ? ss.mSlideState : DEFAULT_SLIDE_STATE;
+        if (mSlideState != PanelState.COLLAPSED) {
+            // The placeholder was only added because the panel was collapsed when inflated
+            ensurePanelContent();
+        }
     }
 
     private class DragHelperCallback extends ViewDragHelper.Callback {
@@ -1329,9 +2669,19 @@ public class SlidingUpPanelLayout extends ViewGroup {
 
         @Override
         public void onViewDragStateChanged(int state) {
+            if (state != ViewDragHelper.STATE_IDLE && mMotionLayerPolicy != MotionLayerPolicy.NONE) {
+                // Only the parallax moves the main view without changing its content
+                final boolean promoteMain = mMotionLayerPolicy == MotionLayerPolicy.PANEL_AND_MAIN && mParallaxOffset > 0;
+                mMotionLayers.start(mSlideableView, promoteMain ? mMainView : null);
+            }
             if (mDragHelper.getViewDragState() == ViewDragHelper.STATE_IDLE) {
-                mSlideOffset = computeSlideOffset(mSlideableView.getTop());
+                mMotionLayers.stop();
+                mSlideOffset = computeSlideOffset(getSlideableTop());
                 applyParallaxForCurrentSlideOffset();
+                if (mMainViewEnlarged) {
+                    applyMainViewHeight();
+                }
+                dispatchOnMainViewportChanged();
 
                 if (mSlideOffset == 1) {
                     updateObscuredViewVisibility();
@@ -1356,41 +2706,18 @@ public class SlidingUpPanelLayout extends ViewGroup {
         @Override
         public void onViewPositionChanged(View changedView, int left, int top, int dx, int dy) {
             onPanelDragged(top);
-            invalidate();
+            invalidatePanelMove(changedView, top - dy, top);
         }
 
         @Override
         public void onViewReleased(View releasedChild, float xvel, float yvel) {
-            int target = 0;
-
-            // direction is always positive if we are sliding in the expanded direction
-            float direction = mIsSlidingUp ? -yvel : yvel;
-
-            if (direction > 0 && mSlideOffset <= mAnchorPoint) {
-                // swipe up -> expand and stop at anchor point
-                target = computePanelTopPosition(mAnchorPoint);
-            } else if (direction > 0 && mSlideOffset > mAnchorPoint) {
-                // swipe up past anchor -> expand
-                target = computePanelTopPosition(1.0f);
-            } else if (direction < 0 && mSlideOffset >= mAnchorPoint) {
-                // swipe down -> collapse and stop at anchor point
-                target = computePanelTopPosition(mAnchorPoint);
-            } else if (direction < 0 && mSlideOffset < mAnchorPoint) {
-                // swipe down past anchor -> collapse
-                target = computePanelTopPosition(0.0f);
-            } else if (mSlideOffset >= (1.f + mAnchorPoint) / 2) {
-                // zero velocity, and far enough from anchor point => expand to the top
-                target = computePanelTopPosition(1.0f);
-            } else if (mSlideOffset >= mAnchorPoint / 2) {
-                // zero velocity, and close enough to anchor point => go to anchor
-                target = computePanelTopPosition(mAnchorPoint);
-            } else {
-                // settle at the bottom
-                target = computePanelTopPosition(0.0f);
-            }
+            // Project the fling to where it would stop and settle at the nearest resting position.
+            // Without velocity, this is the nearest one.
+            int target = getSnapPoints().findTarget(mDragHelper.getViewTop(releasedChild), yvel,
+                    mFlingDeceleration);
 
             mDragHelper.settleCapturedViewAt(releasedChild.getLeft(), target);
-            invalidate();
+            postSettleFrame();
         }
 
         @Override
@@ -1400,13 +2727,15 @@ public class SlidingUpPanelLayout extends ViewGroup {
 
         @Override
         public int clampViewPositionVertical(View child, int top, int dy) {
-            final int collapsedTop = computePanelTopPosition(0.f);
-            final int expandedTop = computePanelTopPosition(1.0f);
-            if (mIsSlidingUp) {
-                return Math.min(Math.max(top, expandedTop), collapsedTop);
-            } else {
-                return Math.min(Math.max(top, collapsedTop), expandedTop);
+            // The collapsed and expanded positions are the outermost resting positions
+            final SnapPoints snapPoints = getSnapPoints();
+            if (snapPoints.size() == 0) {
+                final int collapsedTop = computePanelTopPosition(0.0f);
+                final int expandedTop = computePanelTopPosition(1.0f);
+                return Math.min(Math.max(top, Math.min(collapsedTop, expandedTop)),
+                        Math.max(collapsedTop, expandedTop));
             }
+            return Math.min(Math.max(top, snapPoints.getMin()), snapPoints.getMax());
         }
     }
 
@@ -1417,6 +2746,24 @@ public class SlidingUpPanelLayout extends ViewGroup {
 
         public float weight = 0;
 
+        static final int UNMEASURED = -1;
+
+        /**
+         * Measure specs the child was last measured with
+         */
+        int mMeasuredWidthSpec = UNMEASURED;
+        int mMeasuredHeightSpec = UNMEASURED;
+
+        /**
+         * True if measuring the child was skipped while it was hidden
+         */
+        boolean mMeasureDeferred;
+
+        /**
+         * True if the child was measured since its last layout
+         */
+        boolean mNeedsLayout;
+
         public LayoutParams() {
             super(MATCH_PARENT, MATCH_PARENT);
         }
@@ -1454,6 +2801,135 @@ public class SlidingUpPanelLayout extends ViewGroup {
         }
     }
 
+    /**
+     * How often a {@link PanelSlideListener} is told about slide offset changes.
+     */
+    public static final class SlideDeliveryPolicy {
+        /**
+         * The listener is called on every change of the slide offset
+         */
+        public static final SlideDeliveryPolicy EVERY_CHANGE = new SlideDeliveryPolicy(0, false);
+
+        /**
+         * The listener is called at most once per frame, with the latest slide offset
+         */
+        public static final SlideDeliveryPolicy ONCE_PER_FRAME = new SlideDeliveryPolicy(0, true);
+
+        final float mQuantum;
+        final boolean mOncePerFrame;
+
+        private SlideDeliveryPolicy(float quantum, boolean oncePerFrame) {
+            mQuantum = quantum;
+            mOncePerFrame = oncePerFrame;
+        }
+
+        /**
+         * The listener is only called when the slide offset crosses a multiple of the quantum,
+         * for instance 1/255f for a listener driving an alpha.
+         *
+         * @param quantum the offset resolution the listener needs, greater than 0
+         */
+        public static SlideDeliveryPolicy quantized(float quantum) {
+            if (!(quantum > 0)) {
+                throw new IllegalArgumentException("Quantum must be greater than 0");
+            }
+            return new SlideDeliveryPolicy(quantum, false);
+        }
+    }
+
+    /**
+     * Durations of the calls of a {@link PanelSlideListener}, kept while a time budget is set
+     * with {@link #setListenerTimeBudget(long, ListenerBudgetCallback)}.
+     */
+    public static final class ListenerTimings {
+        long mMinNanos = Long.MAX_VALUE;
+        long mMaxNanos;
+        long mTotalNanos;
+        int mCallCount;
+        int mOverrunCount;
+
+        ListenerTimings() {
+        }
+
+        void add(long durationNanos) {
+            mMinNanos = Math.min(mMinNanos, durationNanos);
+            mMaxNanos = Math.max(mMaxNanos, durationNanos);
+            mTotalNanos += durationNanos;
+            mCallCount++;
+        }
+
+        public long getMinNanos() {
+            return mCallCount > 0 ? mMinNanos : 0;
+        }
+
+        public long getMeanNanos() {
+            return mCallCount > 0 ? mTotalNanos / mCallCount : 0;
+        }
+
+        public long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        public int getCallCount() {
+            return mCallCount;
+        }
+
+        /**
+         * @return The number of calls over the time budget
+         */
+        public int getOverrunCount() {
+            return mOverrunCount;
+        }
+
+        @Override
+        public String toString() {
+            return "min " + getMinNanos() / 1000 + "us, mean " + getMeanNanos() / 1000 + "us, max "
+                    + mMaxNanos / 1000 + "us, " + mOverrunCount + " of " + mCallCount + " calls over budget";
+        }
+    }
+
+    /**
+     * A listener with its delivery policy and state.
+     */
+    private static class SlideListenerRecord {
+        final PanelSlideListener mListener;
+        final SlideDeliveryPolicy mPolicy;
+        /**
+         * Delivers the events on an executor, null for listeners called on the UI thread
+         */
+        final ExecutorListenerLane mLane;
+        /**
+         * Last offset delivered to the listener
+         */
+        float mLastOffset = Float.NaN;
+        /**
+         * True if an offset change has not been delivered to the listener yet
+         */
+        boolean mPending;
+        /**
+         * Timings of the listener calls, created when they are first timed
+         */
+        ListenerTimings mTimings;
+
+        SlideListenerRecord(PanelSlideListener listener, SlideDeliveryPolicy policy) {
+            mListener = listener;
+            mPolicy = policy;
+            mLane = null;
+        }
+
+        SlideListenerRecord(PanelSlideListener listener, ExecutorListenerLane lane) {
+            mListener = listener;
+            mPolicy = SlideDeliveryPolicy.EVERY_CHANGE;
+            mLane = lane;
+        }
+
+        void deliver(View panel, float slideOffset) {
+            mPending = false;
+            mLastOffset = slideOffset;
+            mListener.onPanelSlide(panel, slideOffset);
+        }
+    }
+
     static class SavedState extends BaseSavedState {
         PanelState mSlideState;
 
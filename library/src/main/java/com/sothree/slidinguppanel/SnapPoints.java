@@ -0,0 +1,117 @@
+package com.sothree.slidinguppanel;
+
+/**
+ * Sorted table of the pixel positions a panel can rest at. Picks where a released panel should
+ * settle by projecting its fling to the natural stopping position and snapping to the nearest
+ * resting position.
+ */
+class SnapPoints {
+    private int[] mPositions = new int[4];
+    private int mCount;
+
+    /**
+     * Removes all the resting positions.
+     */
+    void clear() {
+        mCount = 0;
+    }
+
+    /**
+     * Adds a resting position, keeping the table sorted. Duplicates are ignored.
+     *
+     * @param position the resting position in pixels
+     */
+    void add(int position) {
+        final int index = findFirstAbove(position);
+        if (index > 0 && mPositions[index - 1] == position) {
+            return;
+        }
+        if (mCount == mPositions.length) {
+            final int[] positions = new int[mCount * 2];
+            System.arraycopy(mPositions, 0, positions, 0, mCount);
+            mPositions = positions;
+        }
+        System.arraycopy(mPositions, index, mPositions, index + 1, mCount - index);
+        mPositions[index] = position;
+        mCount++;
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * @return The smallest resting position, the table must not be empty
+     */
+    int getMin() {
+        return mPositions[0];
+    }
+
+    /**
+     * @return The largest resting position, the table must not be empty
+     */
+    int getMax() {
+        return mPositions[mCount - 1];
+    }
+
+    /**
+     * Finds where a panel released at the given position and velocity should settle. The fling is
+     * projected to where it would naturally stop with the given deceleration and the nearest
+     * resting position is chosen. A fling always moves the panel to a resting position in its
+     * direction, when there is one.
+     *
+     * @param position     the current position in pixels
+     * @param velocity     the release velocity in pixels per second, 0 if not a fling
+     * @param deceleration the fling deceleration in pixels per second squared
+     * @return the resting position to settle at
+     */
+    int findTarget(int position, float velocity, float deceleration) {
+        if (mCount == 0) {
+            return position;
+        }
+        float projected = position;
+        if (velocity != 0 && deceleration > 0) {
+            projected += Math.signum(velocity) * velocity * velocity / (2 * deceleration);
+        }
+        final int target = findNearest(projected);
+
+        if (velocity > 0 && target <= position) {
+            // Never settle back against the fling, move to the next position in its direction
+            final int next = findFirstAbove(position);
+            return next < mCount ? mPositions[next] : target;
+        } else if (velocity < 0 && target >= position) {
+            final int previous = findFirstAbove(position - 1) - 1;
+            return previous >= 0 ? mPositions[previous] : target;
+        }
+        return target;
+    }
+
+    private int findNearest(float position) {
+        final int index = findFirstAbove((int) Math.floor(position));
+        if (index == 0) {
+            return mPositions[0];
+        } else if (index == mCount) {
+            return mPositions[mCount - 1];
+        }
+        final int below = mPositions[index - 1];
+        final int above = mPositions[index];
+        return position - below <= above - position ? below : above;
+    }
+
+    /**
+     * @return The index of the first resting position strictly greater than position
+     */
+    private int findFirstAbove(int position) {
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (mPositions[mid] <= position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
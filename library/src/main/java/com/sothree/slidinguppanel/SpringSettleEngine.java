@@ -0,0 +1,241 @@
+package com.sothree.slidinguppanel;
+
+import android.view.animation.AnimationUtils;
+
+/**
+ * {@link SettleEngine} moving the view with a damped spring attached to the target position.
+ * The motion starts from the exact release velocity, so there is no velocity discontinuity when
+ * the view is let go, and it ends as soon as the spring is at rest instead of after a fixed
+ * duration. The spring is solved analytically for each frame, without allocating.
+ */
+public class SpringSettleEngine implements SettleEngine {
+
+    /**
+     * Default stiffness of the spring, for a unit mass
+     */
+    public static final float DEFAULT_STIFFNESS = 1500f;
+
+    /**
+     * Default damping ratio of the spring. 1 is critically damped: the fastest motion that does
+     * not overshoot the target.
+     */
+    public static final float DEFAULT_DAMPING_RATIO = 1f;
+
+    /**
+     * The spring is at rest once closer than this to the target, in pixels...
+     */
+    private static final float REST_DISPLACEMENT = 0.5f;
+
+    /**
+     * ...and slower than this, in pixels per second.
+     */
+    private static final float REST_VELOCITY = 30f;
+
+    /**
+     * Friction coefficient of free flings, per second
+     */
+    private static final float FLING_FRICTION = 4.2f;
+
+    /**
+     * Safety net for motions which would never come to rest
+     */
+    private static final long MAX_DURATION = 3000; // ms
+
+    private final float mNaturalFrequency;
+    private final float mDampingRatio;
+
+    private final Axis mX = new Axis();
+    private final Axis mY = new Axis();
+
+    private boolean mFling;
+    private long mStartTime;
+    private boolean mFinished = true;
+
+    public SpringSettleEngine() {
+        this(DEFAULT_STIFFNESS, DEFAULT_DAMPING_RATIO);
+    }
+
+    /**
+     * @param stiffness    Stiffness of the spring, must be positive
+     * @param dampingRatio Damping ratio of the spring, must be positive. Values below 1 bounce
+     *                     around the target, values above 1 approach it more slowly.
+     */
+    public SpringSettleEngine(float stiffness, float dampingRatio) {
+        if (stiffness <= 0) {
+            throw new IllegalArgumentException("Spring stiffness must be positive");
+        }
+        if (dampingRatio <= 0) {
+            throw new IllegalArgumentException("Spring damping ratio must be positive");
+        }
+        mNaturalFrequency = (float) Math.sqrt(stiffness);
+        mDampingRatio = dampingRatio;
+    }
+
+    @Override
+    public void startSettle(int startX, int startY, int dx, int dy, float xvel, float yvel, int duration) {
+        mFling = false;
+        // An axis that does not move starts at rest, the release velocity along it would
+        // otherwise push the view off its position for the duration of the settle
+        mX.startSpring(startX, startX + dx, dx != 0 ? xvel : 0, mNaturalFrequency, mDampingRatio);
+        mY.startSpring(startY, startY + dy, dy != 0 ? yvel : 0, mNaturalFrequency, mDampingRatio);
+        start();
+    }
+
+    @Override
+    public void fling(int startX, int startY, int xvel, int yvel, int minX, int maxX, int minY, int maxY) {
+        mFling = true;
+        mX.startFling(startX, xvel, minX, maxX);
+        mY.startFling(startY, yvel, minY, maxY);
+        start();
+    }
+
+    private void start() {
+        mStartTime = AnimationUtils.currentAnimationTimeMillis();
+        mFinished = false;
+    }
+
+    @Override
+    public boolean computeOffset() {
+        if (mFinished) {
+            return false;
+        }
+        final long elapsed = AnimationUtils.currentAnimationTimeMillis() - mStartTime;
+        final float t = elapsed / 1000f;
+        final boolean xMoving;
+        final boolean yMoving;
+        if (mFling) {
+            xMoving = mX.updateFling(t);
+            yMoving = mY.updateFling(t);
+        } else {
+            xMoving = mX.updateSpring(t);
+            yMoving = mY.updateSpring(t);
+        }
+        if ((!xMoving && !yMoving) || elapsed >= MAX_DURATION) {
+            abort();
+        }
+        return true;
+    }
+
+    @Override
+    public void abort() {
+        mX.curr = mX.target;
+        mY.curr = mY.target;
+        mFinished = true;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    @Override
+    public int getCurrX() {
+        return mX.curr;
+    }
+
+    @Override
+    public int getCurrY() {
+        return mY.curr;
+    }
+
+    @Override
+    public int getFinalX() {
+        return mX.target;
+    }
+
+    @Override
+    public int getFinalY() {
+        return mY.target;
+    }
+
+    /**
+     * Motion along one axis. Spring motions are described by the displacement from the target,
+     * which decays as x(t) = c1 * f1(t) + c2 * f2(t) depending on the damping regime.
+     */
+    private static class Axis {
+        int curr;
+        int target;
+
+        // Spring state
+        float omega;
+        float zeta;
+        float c1;
+        float c2;
+        // Damped frequency when under damped, roots of the characteristic equation when over damped
+        float r1;
+        float r2;
+
+        // Fling state
+        int start;
+        float velocity;
+        int min;
+        int max;
+
+        void startSpring(int from, int to, float v0, float naturalFrequency, float dampingRatio) {
+            curr = from;
+            target = to;
+            omega = naturalFrequency;
+            zeta = dampingRatio;
+            final float x0 = from - to;
+            if (zeta < 1) {
+                r1 = omega * (float) Math.sqrt(1 - zeta * zeta);
+                c1 = x0;
+                c2 = (v0 + zeta * omega * x0) / r1;
+            } else if (zeta == 1) {
+                c1 = x0;
+                c2 = v0 + omega * x0;
+            } else {
+                final float root = (float) Math.sqrt(zeta * zeta - 1);
+                r1 = -omega * (zeta - root);
+                r2 = -omega * (zeta + root);
+                c2 = (v0 - r1 * x0) / (r2 - r1);
+                c1 = x0 - c2;
+            }
+        }
+
+        /**
+         * @return true if the spring is still moving along this axis
+         */
+        boolean updateSpring(float t) {
+            final float x;
+            final float v;
+            if (zeta < 1) {
+                final float decay = (float) Math.exp(-zeta * omega * t);
+                final float cos = (float) Math.cos(r1 * t);
+                final float sin = (float) Math.sin(r1 * t);
+                x = decay * (c1 * cos + c2 * sin);
+                v = decay * ((c2 * r1 - zeta * omega * c1) * cos - (c1 * r1 + zeta * omega * c2) * sin);
+            } else if (zeta == 1) {
+                final float decay = (float) Math.exp(-omega * t);
+                x = decay * (c1 + c2 * t);
+                v = decay * (c2 - omega * (c1 + c2 * t));
+            } else {
+                final float e1 = (float) Math.exp(r1 * t);
+                final float e2 = (float) Math.exp(r2 * t);
+                x = c1 * e1 + c2 * e2;
+                v = c1 * r1 * e1 + c2 * r2 * e2;
+            }
+            curr = target + Math.round(x);
+            return Math.abs(x) > REST_DISPLACEMENT || Math.abs(v) > REST_VELOCITY;
+        }
+
+        void startFling(int from, int v0, int minPosition, int maxPosition) {
+            curr = start = from;
+            velocity = v0;
+            min = minPosition;
+            max = maxPosition;
+            final int distance = Math.round(v0 / FLING_FRICTION);
+            target = Math.max(min, Math.min(max, from + distance));
+        }
+
+        /**
+         * @return true if the fling is still moving along this axis
+         */
+        boolean updateFling(float t) {
+            final float decay = (float) Math.exp(-FLING_FRICTION * t);
+            final int position = start + Math.round(velocity / FLING_FRICTION * (1 - decay));
+            curr = Math.max(min, Math.min(max, position));
+            return curr != target && Math.abs(velocity * decay) > REST_VELOCITY;
+        }
+    }
+}
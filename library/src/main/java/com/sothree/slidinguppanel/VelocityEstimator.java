@@ -0,0 +1,41 @@
+package com.sothree.slidinguppanel;
+
+/**
+ * Estimates the velocity of a pointer from the motion samples it reports. Unlike the platform
+ * VelocityTracker, an estimator is fed primitive samples and can be queried at any time during a
+ * gesture, not only when the pointer is released.
+ */
+public interface VelocityEstimator {
+    /**
+     * Records a new position of the tracked pointer.
+     *
+     * @param eventTime Time of the sample in milliseconds, in the uptimeMillis time base
+     * @param x         X coordinate of the pointer
+     * @param y         Y coordinate of the pointer
+     */
+    void addSample(long eventTime, float x, float y);
+
+    /**
+     * Forgets all the recorded samples. Called when a new gesture starts or when the tracked
+     * pointer changes.
+     */
+    void clear();
+
+    /**
+     * Computes the current velocity from the recorded samples. The result can then be read
+     * through {@link #getXVelocity()} and {@link #getYVelocity()}.
+     *
+     * @param maxVelocity Maximum magnitude of the computed velocity in pixels per second
+     */
+    void computeVelocity(float maxVelocity);
+
+    /**
+     * @return The last computed horizontal velocity in pixels per second
+     */
+    float getXVelocity();
+
+    /**
+     * @return The last computed vertical velocity in pixels per second
+     */
+    float getYVelocity();
+}
@@ -18,12 +18,11 @@
 package com.sothree.slidinguppanel;
 
 import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
 import android.support.v4.view.MotionEventCompat;
-import android.support.v4.view.VelocityTrackerCompat;
 import android.support.v4.view.ViewCompat;
-import android.support.v4.widget.ScrollerCompat;
 import android.view.MotionEvent;
-import android.view.VelocityTracker;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
@@ -106,6 +105,10 @@ public class ViewDragHelper {
     private static final int BASE_SETTLE_DURATION = 256; // ms
     private static final int MAX_SETTLE_DURATION = 600; // ms
 
+    private static final int DEFAULT_PREDICTION_FRAME_TIME = 16; // ms
+    private static final int MAX_PREDICTION_LEAD = 48; // ms
+    private static final int MAX_PREDICTION_DISTANCE = 24; // dp
+
     // Current drag state; idle, dragging or settling
     private int mDragState;
 
@@ -123,14 +126,37 @@ public class ViewDragHelper {
     private int[] mEdgeDragsLocked;
     private int mPointersDown;
 
-    private VelocityTracker mVelocityTracker;
+    private VelocityEstimator mVelocityEstimator = new RingBufferVelocityEstimator();
+    // Pointer whose samples are currently fed to the velocity estimator
+    private int mVelocityPointerId = INVALID_POINTER;
+
+    // Whether batched historical samples of move events are consumed while dragging
+    private boolean mHistoricalMotionEnabled = true;
+
+    // Whether views are moved with their translation instead of their layout position
+    private boolean mTranslationPositioning;
+
+    // Motion prediction, extrapolating the vertical drag to the expected presentation time
+    private boolean mMotionPredictionEnabled;
+    private int mPredictionFrameTime = DEFAULT_PREDICTION_FRAME_TIME;
+    private int mMaxPredictionDistance;
+    // Part of the captured view's top that comes from prediction rather than from the pointer
+    private int mPredictionOffsetY;
+    // Sign of the last non zero vertical pointer motion
+    private int mLastMotionDirectionY;
+
+    // Drag coalescing, applying only the latest drag position once per frame
+    private boolean mDragCoalescingEnabled;
+    private boolean mDragPending;
+    private int mPendingDragLeft;
+    private int mPendingDragTop;
     private float mMaxVelocity;
     private float mMinVelocity;
 
     private int mEdgeSize;
     private int mTrackingEdges;
 
-    private ScrollerCompat mScroller;
+    private SettleEngine mSettleEngine;
 
     private final Callback mCallback;
 
@@ -322,7 +348,7 @@ public class ViewDragHelper {
     }
 
     /**
-     * Interpolator defining the animation curve for mScroller
+     * Interpolator defining the animation curve of the default settle engine
      */
     private static final Interpolator sInterpolator = new Interpolator() {
         public float getInterpolation(float t) {
@@ -337,6 +363,12 @@ public class ViewDragHelper {
         }
     };
 
+    private final Runnable mApplyPendingDragRunnable = new Runnable() {
+        public void run() {
+            applyPendingDrag();
+        }
+    };
+
     /**
      * Factory method to create a new ViewDragHelper.
      *
@@ -415,11 +447,35 @@ public class ViewDragHelper {
         final ViewConfiguration vc = ViewConfiguration.get(context);
         final float density = context.getResources().getDisplayMetrics().density;
         mEdgeSize = (int) (EDGE_SIZE * density + 0.5f);
+        mMaxPredictionDistance = (int) (MAX_PREDICTION_DISTANCE * density + 0.5f);
 
         mTouchSlop = vc.getScaledTouchSlop();
         mMaxVelocity = vc.getScaledMaximumFlingVelocity();
         mMinVelocity = vc.getScaledMinimumFlingVelocity();
-        mScroller = ScrollerCompat.create(context, interpolator != null ? interpolator : sInterpolator);
+        mSettleEngine = new ScrollerSettleEngine(context, interpolator != null ? interpolator : sInterpolator);
+    }
+
+    /**
+     * Set the engine computing the motion of views settling into place. By default a
+     * {@link ScrollerSettleEngine} is used. Any settling in progress is stopped first.
+     *
+     * @param engine Settle engine, may not be null
+     */
+    public void setSettleEngine(SettleEngine engine) {
+        if (engine == null) {
+            throw new IllegalArgumentException("Settle engine may not be null");
+        }
+        if (mDragState == STATE_SETTLING) {
+            abort();
+        }
+        mSettleEngine = engine;
+    }
+
+    /**
+     * @return The engine computing the motion of views settling into place
+     */
+    public SettleEngine getSettleEngine() {
+        return mSettleEngine;
     }
 
     /**
@@ -443,6 +499,176 @@ public class ViewDragHelper {
         return mMinVelocity;
     }
 
+    /**
+     * Set the estimator used to compute the pointer velocity while dragging and on release.
+     *
+     * @param estimator Velocity estimator, may not be null
+     */
+    public void setVelocityEstimator(VelocityEstimator estimator) {
+        if (estimator == null) {
+            throw new IllegalArgumentException("Velocity estimator may not be null");
+        }
+        mVelocityEstimator = estimator;
+        mVelocityPointerId = INVALID_POINTER;
+    }
+
+    /**
+     * @return The estimator used to compute the pointer velocity
+     */
+    public VelocityEstimator getVelocityEstimator() {
+        return mVelocityEstimator;
+    }
+
+    /**
+     * Compute the current horizontal velocity of the tracked pointer. Unlike the velocity
+     * reported to {@link Callback#onViewReleased(android.view.View, float, float)}, this can be
+     * queried at any moment of a gesture and is not clamped to the minimum velocity.
+     *
+     * @return The horizontal velocity in pixels per second
+     */
+    public float getCurrentXVelocity() {
+        mVelocityEstimator.computeVelocity(mMaxVelocity);
+        return mVelocityEstimator.getXVelocity();
+    }
+
+    /**
+     * Compute the current vertical velocity of the tracked pointer. Unlike the velocity
+     * reported to {@link Callback#onViewReleased(android.view.View, float, float)}, this can be
+     * queried at any moment of a gesture and is not clamped to the minimum velocity.
+     *
+     * @return The vertical velocity in pixels per second
+     */
+    public float getCurrentYVelocity() {
+        mVelocityEstimator.computeVelocity(mMaxVelocity);
+        return mVelocityEstimator.getYVelocity();
+    }
+
+    /**
+     * Set whether the historical samples batched into a single move event should be consumed
+     * while dragging. When enabled, every sample is applied in order so that clamping at the
+     * drag bounds follows the real pointer path instead of only the last reported position.
+     *
+     * @param enabled true to consume historical samples, false to only use the latest one
+     */
+    public void setHistoricalMotionEnabled(boolean enabled) {
+        mHistoricalMotionEnabled = enabled;
+    }
+
+    /**
+     * @return true if historical samples of move events are consumed while dragging
+     */
+    public boolean isHistoricalMotionEnabled() {
+        return mHistoricalMotionEnabled;
+    }
+
+    /**
+     * Set whether views are moved by changing their translation instead of offsetting their
+     * layout position. All the positions handled by this helper then include the translation.
+     * Translation is only available on Honeycomb and above, this is ignored on older versions.
+     *
+     * @param enabled true to move views with their translation
+     */
+    public void setTranslationPositioning(boolean enabled) {
+        mTranslationPositioning = enabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * @return true if views are moved with their translation
+     */
+    public boolean isTranslationPositioning() {
+        return mTranslationPositioning;
+    }
+
+    /**
+     * @param view Child view of the parent
+     * @return The left edge of the view in the parent, including its translation if views are
+     * moved with their translation
+     */
+    public int getViewLeft(View view) {
+        return mTranslationPositioning
+                ? view.getLeft() + Math.round(ViewCompat.getTranslationX(view))
+                : view.getLeft();
+    }
+
+    /**
+     * @param view Child view of the parent
+     * @return The top edge of the view in the parent, including its translation if views are
+     * moved with their translation
+     */
+    public int getViewTop(View view) {
+        return mTranslationPositioning
+                ? view.getTop() + Math.round(ViewCompat.getTranslationY(view))
+                : view.getTop();
+    }
+
+    private void offsetViewLeftAndRight(View view, int dx) {
+        if (mTranslationPositioning) {
+            ViewCompat.setTranslationX(view, ViewCompat.getTranslationX(view) + dx);
+        } else {
+            view.offsetLeftAndRight(dx);
+        }
+    }
+
+    private void offsetViewTopAndBottom(View view, int dy) {
+        if (mTranslationPositioning) {
+            ViewCompat.setTranslationY(view, ViewCompat.getTranslationY(view) + dy);
+        } else {
+            view.offsetTopAndBottom(dy);
+        }
+    }
+
+    /**
+     * Set whether the vertical drag position should be extrapolated to the time the frame is
+     * expected to be presented, so that the dragged view does not trail the pointer. The
+     * predicted position is clamped by {@link Callback#clampViewPositionVertical(View, int, int)}
+     * and prediction is dropped as soon as the pointer reverses its direction.
+     *
+     * @param enabled true to enable motion prediction
+     */
+    public void setMotionPredictionEnabled(boolean enabled) {
+        mMotionPredictionEnabled = enabled;
+    }
+
+    /**
+     * @return true if motion prediction is enabled
+     */
+    public boolean isMotionPredictionEnabled() {
+        return mMotionPredictionEnabled;
+    }
+
+    /**
+     * Set the time between a frame being drawn and it being presented on screen, which is added
+     * to the input latency to compute how far ahead motion prediction extrapolates.
+     *
+     * @param frameTime Frame presentation latency in milliseconds
+     */
+    public void setPredictionFrameTime(int frameTime) {
+        mPredictionFrameTime = frameTime;
+    }
+
+    /**
+     * Set whether drag positions should be coalesced to one per frame. When enabled, move events
+     * only record the latest target position of the captured view, which is applied once at the
+     * beginning of the next animation frame. The callback then sees at most one
+     * {@link Callback#onViewPositionChanged(View, int, int, int, int)} per frame, no matter how
+     * many input events arrive. Any pending position is applied before the view is released.
+     *
+     * @param enabled true to coalesce drag positions
+     */
+    public void setDragCoalescingEnabled(boolean enabled) {
+        if (!enabled) {
+            applyPendingDrag();
+        }
+        mDragCoalescingEnabled = enabled;
+    }
+
+    /**
+     * @return true if drag positions are coalesced to one per frame
+     */
+    public boolean isDragCoalescingEnabled() {
+        return mDragCoalescingEnabled;
+    }
+
     /**
      * Retrieve the current drag state of this helper. This will return one of
      * {@link #STATE_IDLE}, {@link #STATE_DRAGGING} or {@link #STATE_SETTLING}.
@@ -526,13 +752,14 @@ public class ViewDragHelper {
      * {@link #processTouchEvent(android.view.MotionEvent)} receiving an ACTION_CANCEL event.
      */
     public void cancel() {
+        applyPendingDrag();
         mActivePointerId = INVALID_POINTER;
         clearMotionHistory();
 
-        if (mVelocityTracker != null) {
-            mVelocityTracker.recycle();
-            mVelocityTracker = null;
-        }
+        mVelocityEstimator.clear();
+        mVelocityPointerId = INVALID_POINTER;
+        mPredictionOffsetY = 0;
+        mLastMotionDirectionY = 0;
     }
 
     /**
@@ -542,11 +769,11 @@ public class ViewDragHelper {
     public void abort() {
         cancel();
         if (mDragState == STATE_SETTLING) {
-            final int oldX = mScroller.getCurrX();
-            final int oldY = mScroller.getCurrY();
-            mScroller.abortAnimation();
-            final int newX = mScroller.getCurrX();
-            final int newY = mScroller.getCurrY();
+            final int oldX = mSettleEngine.getCurrX();
+            final int oldY = mSettleEngine.getCurrY();
+            mSettleEngine.abort();
+            final int newX = mSettleEngine.getCurrX();
+            final int newY = mSettleEngine.getCurrY();
             mCallback.onViewPositionChanged(mCapturedView, newX, newY, newX - oldX, newY - oldY);
         }
         setDragState(STATE_IDLE);
@@ -591,8 +818,8 @@ public class ViewDragHelper {
         }
 
         return forceSettleCapturedViewAt(finalLeft, finalTop,
-                (int) VelocityTrackerCompat.getXVelocity(mVelocityTracker, mActivePointerId),
-                (int) VelocityTrackerCompat.getYVelocity(mVelocityTracker, mActivePointerId));
+                mVelocityEstimator.getXVelocity(),
+                mVelocityEstimator.getYVelocity());
     }
 
     /**
@@ -600,25 +827,25 @@ public class ViewDragHelper {
      *
      * @param finalLeft Target left position for the captured view
      * @param finalTop Target top position for the captured view
-     * @param xvel Horizontal velocity
-     * @param yvel Vertical velocity
+     * @param xvel Horizontal velocity in pixels per second
+     * @param yvel Vertical velocity in pixels per second
      * @return true if animation should continue through {@link #continueSettling(boolean)} calls
      */
-    private boolean forceSettleCapturedViewAt(int finalLeft, int finalTop, int xvel, int yvel) {
-        final int startLeft = mCapturedView.getLeft();
-        final int startTop = mCapturedView.getTop();
+    private boolean forceSettleCapturedViewAt(int finalLeft, int finalTop, float xvel, float yvel) {
+        final int startLeft = getViewLeft(mCapturedView);
+        final int startTop = getViewTop(mCapturedView);
         final int dx = finalLeft - startLeft;
         final int dy = finalTop - startTop;
 
         if (dx == 0 && dy == 0) {
             // Nothing to do. Send callbacks, be done.
-            mScroller.abortAnimation();
+            mSettleEngine.abort();
             setDragState(STATE_IDLE);
             return false;
         }
 
-        final int duration = computeSettleDuration(mCapturedView, dx, dy, xvel, yvel);
-        mScroller.startScroll(startLeft, startTop, dx, dy, duration);
+        final int duration = computeSettleDuration(mCapturedView, dx, dy, (int) xvel, (int) yvel);
+        mSettleEngine.startSettle(startLeft, startTop, dx, dy, xvel, yvel, duration);
 
         setDragState(STATE_SETTLING);
         return true;
@@ -723,9 +950,9 @@ public class ViewDragHelper {
                     "Callback#onViewReleased");
         }
 
-        mScroller.fling(mCapturedView.getLeft(), mCapturedView.getTop(),
-                (int) VelocityTrackerCompat.getXVelocity(mVelocityTracker, mActivePointerId),
-                (int) VelocityTrackerCompat.getYVelocity(mVelocityTracker, mActivePointerId),
+        mSettleEngine.fling(getViewLeft(mCapturedView), getViewTop(mCapturedView),
+                (int) mVelocityEstimator.getXVelocity(),
+                (int) mVelocityEstimator.getYVelocity(),
                 minLeft, maxLeft, minTop, maxTop);
 
         setDragState(STATE_SETTLING);
@@ -748,34 +975,34 @@ public class ViewDragHelper {
             return false;
         }
         if (mDragState == STATE_SETTLING) {
-            boolean keepGoing = mScroller.computeScrollOffset();
-            final int x = mScroller.getCurrX();
-            final int y = mScroller.getCurrY();
-            final int dx = x - mCapturedView.getLeft();
-            final int dy = y - mCapturedView.getTop();
+            boolean keepGoing = mSettleEngine.computeOffset();
+            final int x = mSettleEngine.getCurrX();
+            final int y = mSettleEngine.getCurrY();
+            final int dx = x - getViewLeft(mCapturedView);
+            final int dy = y - getViewTop(mCapturedView);
             
-            if(!keepGoing && dy != 0) { //fix #525
+            if(!keepGoing && dy != 0 && !mTranslationPositioning) { //fix #525
                 //Invalid drag state
                 mCapturedView.setTop(0);
                 return true;
             }
 
             if (dx != 0) {
-                mCapturedView.offsetLeftAndRight(dx);
+                offsetViewLeftAndRight(mCapturedView, dx);
             }
             if (dy != 0) {
-                mCapturedView.offsetTopAndBottom(dy);
+                offsetViewTopAndBottom(mCapturedView, dy);
             }
 
             if (dx != 0 || dy != 0) {
                 mCallback.onViewPositionChanged(mCapturedView, x, y, dx, dy);
             }
 
-            if (keepGoing && x == mScroller.getFinalX() && y == mScroller.getFinalY()) {
+            if (keepGoing && x == mSettleEngine.getFinalX() && y == mSettleEngine.getFinalY()) {
                 // Close enough. The interpolator/scroller might think we're still moving
                 // but the user sure doesn't.
-                mScroller.abortAnimation();
-                keepGoing = mScroller.isFinished();
+                mSettleEngine.abort();
+                keepGoing = mSettleEngine.isFinished();
             }
 
             if (!keepGoing) {
@@ -797,6 +1024,9 @@ public class ViewDragHelper {
      * or {@link #flingCapturedView(int, int, int, int)}.
      */
     private void dispatchViewReleased(float xvel, float yvel) {
+        // Settle from where the pointer really left the view
+        applyPendingDrag();
+
         mReleaseInProgress = true;
         mCallback.onViewReleased(mCapturedView, xvel, yvel);
         mReleaseInProgress = false;
@@ -990,10 +1220,9 @@ public class ViewDragHelper {
             cancel();
         }
 
-        if (mVelocityTracker == null) {
-            mVelocityTracker = VelocityTracker.obtain();
+        if (action == MotionEvent.ACTION_DOWN || action == MotionEvent.ACTION_MOVE) {
+            trackVelocity(ev);
         }
-        mVelocityTracker.addMovement(ev);
 
         switch (action) {
             case MotionEvent.ACTION_DOWN: {
@@ -1100,10 +1329,11 @@ public class ViewDragHelper {
             cancel();
         }
 
-        if (mVelocityTracker == null) {
-            mVelocityTracker = VelocityTracker.obtain();
+        if (action == MotionEvent.ACTION_DOWN
+                || (action == MotionEvent.ACTION_MOVE && mDragState != STATE_DRAGGING)) {
+            // Samples of a drag are tracked by dragToMotionSamples in the same pass
+            trackVelocity(ev);
         }
-        mVelocityTracker.addMovement(ev);
 
         switch (action) {
             case MotionEvent.ACTION_DOWN: {
@@ -1157,14 +1387,7 @@ public class ViewDragHelper {
             case MotionEvent.ACTION_MOVE: {
                 if (mDragState == STATE_DRAGGING) {
                     final int index = MotionEventCompat.findPointerIndex(ev, mActivePointerId);
-                    final float x = MotionEventCompat.getX(ev, index);
-                    final float y = MotionEventCompat.getY(ev, index);
-                    final int idx = (int) (x - mLastMotionX[mActivePointerId]);
-                    final int idy = (int) (y - mLastMotionY[mActivePointerId]);
-
-                    dragTo(mCapturedView.getLeft() + idx, mCapturedView.getTop() + idy, idx, idy);
-
-                    saveLastMotion(ev);
+                    dragToMotionSamples(ev, index);
                 } else {
                     // Check to see if any pointer is now over a draggable view.
                     final int pointerCount = MotionEventCompat.getPointerCount(ev);
@@ -1405,28 +1628,152 @@ public class ViewDragHelper {
     }
 
     private void releaseViewForPointerUp() {
-        mVelocityTracker.computeCurrentVelocity(1000, mMaxVelocity);
-        final float xvel = clampMag(
-                VelocityTrackerCompat.getXVelocity(mVelocityTracker, mActivePointerId),
-                mMinVelocity, mMaxVelocity);
-        final float yvel = clampMag(
-                VelocityTrackerCompat.getYVelocity(mVelocityTracker, mActivePointerId),
-                mMinVelocity, mMaxVelocity);
+        mVelocityEstimator.computeVelocity(mMaxVelocity);
+        final float xvel = clampMag(mVelocityEstimator.getXVelocity(), mMinVelocity, mMaxVelocity);
+        final float yvel = clampMag(mVelocityEstimator.getYVelocity(), mMinVelocity, mMaxVelocity);
         dispatchViewReleased(xvel, yvel);
     }
 
+    /**
+     * Feed the samples of the given event for the tracked pointer to the velocity estimator.
+     * The captured pointer is tracked when there is one, the first pointer otherwise.
+     */
+    private void trackVelocity(MotionEvent ev) {
+        int index = mActivePointerId != INVALID_POINTER
+                ? MotionEventCompat.findPointerIndex(ev, mActivePointerId) : -1;
+        if (index < 0) {
+            index = 0;
+        }
+        setVelocityPointer(MotionEventCompat.getPointerId(ev, index));
+
+        final int historySize = mHistoricalMotionEnabled ? ev.getHistorySize() : 0;
+        for (int h = 0; h < historySize; h++) {
+            mVelocityEstimator.addSample(ev.getHistoricalEventTime(h),
+                    ev.getHistoricalX(index, h), ev.getHistoricalY(index, h));
+        }
+        mVelocityEstimator.addSample(ev.getEventTime(), ev.getX(index), ev.getY(index));
+    }
+
+    private void setVelocityPointer(int pointerId) {
+        if (mVelocityPointerId != pointerId) {
+            mVelocityEstimator.clear();
+            mVelocityPointerId = pointerId;
+        }
+    }
+
+    /**
+     * Drag the captured view along all the samples of the given move event in a single pass.
+     * Each sample is fed to the velocity estimator and clamped in order, but the view is only
+     * moved and the callback only notified once, with the final position. Sub-pixel remainders
+     * are carried over to the next event instead of being truncated away.
+     *
+     * @param ev Move event to consume
+     * @param index Index of the active pointer in ev
+     */
+    private void dragToMotionSamples(MotionEvent ev, int index) {
+        final int pointerId = mActivePointerId;
+        final int oldLeft = mDragPending ? mPendingDragLeft : getViewLeft(mCapturedView);
+        final int oldTop = mDragPending ? mPendingDragTop : getViewTop(mCapturedView);
+        final int historySize = mHistoricalMotionEnabled ? ev.getHistorySize() : 0;
+        float lastX = mLastMotionX[pointerId];
+        float lastY = mLastMotionY[pointerId];
+        int left = oldLeft;
+        // Work from the position the pointer alone would have put the view at
+        int top = oldTop - mPredictionOffsetY;
+
+        setVelocityPointer(pointerId);
+        for (int h = 0; h <= historySize; h++) {
+            final float x = h < historySize ? ev.getHistoricalX(index, h) : ev.getX(index);
+            final float y = h < historySize ? ev.getHistoricalY(index, h) : ev.getY(index);
+            mVelocityEstimator.addSample(
+                    h < historySize ? ev.getHistoricalEventTime(h) : ev.getEventTime(), x, y);
+            final int idx = (int) (x - lastX);
+            final int idy = (int) (y - lastY);
+            lastX += idx;
+            lastY += idy;
+
+            if (idx != 0) {
+                left = mCallback.clampViewPositionHorizontal(mCapturedView, left + idx, idx);
+            }
+            if (idy != 0) {
+                top = mCallback.clampViewPositionVertical(mCapturedView, top + idy, idy);
+                mLastMotionDirectionY = idy > 0 ? 1 : -1;
+            }
+        }
+
+        int predictedTop = top;
+        if (mMotionPredictionEnabled) {
+            final int prediction = computePredictionY(ev);
+            if (prediction != 0) {
+                predictedTop = mCallback.clampViewPositionVertical(mCapturedView,
+                        top + prediction, prediction);
+            }
+        }
+        mPredictionOffsetY = predictedTop - top;
+
+        if (mDragCoalescingEnabled) {
+            mPendingDragLeft = left;
+            mPendingDragTop = predictedTop;
+            if (!mDragPending) {
+                mDragPending = true;
+                // Runs on the next Choreographer animation callback on API 16+
+                ViewCompat.postOnAnimation(mParentView, mApplyPendingDragRunnable);
+            }
+        } else {
+            dragTo(left, predictedTop, left - oldLeft, predictedTop - oldTop);
+        }
+
+        saveLastMotion(ev);
+        mLastMotionX[pointerId] = lastX;
+        mLastMotionY[pointerId] = lastY;
+    }
+
+    /**
+     * Extrapolate the vertical pointer motion to the time the next frame is presented.
+     *
+     * @param ev Move event being processed
+     * @return The predicted additional vertical motion in pixels, 0 if none should be applied
+     */
+    private int computePredictionY(MotionEvent ev) {
+        final float yvel = getCurrentYVelocity();
+        if (yvel == 0 || (yvel > 0 ? 1 : -1) != mLastMotionDirectionY) {
+            // The pointer is stopped or reversing, don't overshoot it
+            return 0;
+        }
+        final long lead = Math.min(MAX_PREDICTION_LEAD,
+                Math.max(0, SystemClock.uptimeMillis() - ev.getEventTime()) + mPredictionFrameTime);
+        final float distance = clampMag(yvel * lead / 1000f, 0, mMaxPredictionDistance);
+        return (int) distance;
+    }
+
+    /**
+     * Apply the drag position recorded while coalescing, if any.
+     */
+    private void applyPendingDrag() {
+        if (!mDragPending) {
+            return;
+        }
+        mDragPending = false;
+        mParentView.removeCallbacks(mApplyPendingDragRunnable);
+        if (mCapturedView != null && mDragState == STATE_DRAGGING) {
+            dragTo(mPendingDragLeft, mPendingDragTop,
+                    mPendingDragLeft - getViewLeft(mCapturedView),
+                    mPendingDragTop - getViewTop(mCapturedView));
+        }
+    }
+
     private void dragTo(int left, int top, int dx, int dy) {
         int clampedX = left;
         int clampedY = top;
-        final int oldLeft = mCapturedView.getLeft();
-        final int oldTop = mCapturedView.getTop();
+        final int oldLeft = getViewLeft(mCapturedView);
+        final int oldTop = getViewTop(mCapturedView);
         if (dx != 0) {
             clampedX = mCallback.clampViewPositionHorizontal(mCapturedView, left, dx);
-            mCapturedView.offsetLeftAndRight(clampedX - oldLeft);
+            offsetViewLeftAndRight(mCapturedView, clampedX - oldLeft);
         }
         if (dy != 0) {
             clampedY = mCallback.clampViewPositionVertical(mCapturedView, top, dy);
-            mCapturedView.offsetTopAndBottom(clampedY - oldTop);
+            offsetViewTopAndBottom(mCapturedView, clampedY - oldTop);
         }
 
         if (dx != 0 || dy != 0) {
@@ -1463,10 +1810,12 @@ public class ViewDragHelper {
         if (view == null) {
             return false;
         }
-        return x >= view.getLeft() &&
-                x < view.getRight() &&
-                y >= view.getTop() &&
-                y < view.getBottom();
+        final int left = getViewLeft(view);
+        final int top = getViewTop(view);
+        return x >= left &&
+                x < left + view.getWidth() &&
+                y >= top &&
+                y < top + view.getHeight();
     }
 
     /**
@@ -1481,8 +1830,10 @@ public class ViewDragHelper {
         final int childCount = mParentView.getChildCount();
         for (int i = childCount - 1; i >= 0; i--) {
             final View child = mParentView.getChildAt(mCallback.getOrderedChildIndex(i));
-            if (x >= child.getLeft() && x < child.getRight() &&
-                    y >= child.getTop() && y < child.getBottom()) {
+            final int left = getViewLeft(child);
+            final int top = getViewTop(child);
+            if (x >= left && x < left + child.getWidth() &&
+                    y >= top && y < top + child.getHeight()) {
                 return child;
             }
         }